@@ -43,7 +43,7 @@ final class HomeIdpAuthenticationFlowContext {
 
     HomeIdpDiscoverer discoverer() {
         if (discoverer == null) {
-            discoverer = new HomeIdpDiscoverer(context);
+            discoverer = new HomeIdpDiscoverer(context, config());
         }
         return  discoverer;
     }
@@ -1,7 +1,12 @@
 //package de.sventorben.keycloak.authentication.hidpd;
 package io.phasetwo.service.auth.idp;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.phasetwo.service.model.OrganizationModel;
 import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.model.jpa.OrganizationDomainIndex;
+import io.phasetwo.service.model.jpa.OrganizationIdentityProviderIndex;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.models.AuthenticatorConfigModel;
@@ -12,25 +17,37 @@ import org.keycloak.models.UserModel;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 final class HomeIdpDiscoverer {
 
     private static final Logger LOG = Logger.getLogger(HomeIdpDiscoverer.class);
 
+    // domain lookups of recent logins, as aliases of the matching IdPs. An entry is only used while neither the
+    // domains nor the identity providers changed since it was computed
+    private static final Cache<String, DomainMatch> DOMAIN_MATCHES = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .build();
+
     private final DomainExtractor domainExtractor;
     private final AuthenticationFlowContext context;
+    private final HomeIdpDiscoveryConfig config;
 
-    HomeIdpDiscoverer(AuthenticationFlowContext context) {
-        this(new DomainExtractor(new HomeIdpDiscoveryConfig(context.getAuthenticatorConfig())), context);
+    HomeIdpDiscoverer(AuthenticationFlowContext context, HomeIdpDiscoveryConfig config) {
+        this(new DomainExtractor(config), context, config);
     }
 
-    private HomeIdpDiscoverer(DomainExtractor domainExtractor, AuthenticationFlowContext context) {
+    private HomeIdpDiscoverer(DomainExtractor domainExtractor, AuthenticationFlowContext context, HomeIdpDiscoveryConfig config) {
         this.domainExtractor = domainExtractor;
         this.context = context;
+        this.config = config;
     }
 
     public List<IdentityProviderModel> discoverForUser(String username) {
@@ -54,7 +71,6 @@ final class HomeIdpDiscoverer {
             emailDomain = domainExtractor.extractFrom(user);
         }
 
-        HomeIdpDiscoveryConfig config = new HomeIdpDiscoveryConfig(authenticatorConfig);
         if (config.requireVerifiedEmail()
             && "email".equalsIgnoreCase(config.userAttribute())
             && !user.isEmailVerified()) {
@@ -79,7 +95,6 @@ final class HomeIdpDiscoverer {
     private List<IdentityProviderModel> discoverHomeIdps(Domain domain, UserModel user, String username) {
         final Map<String, String> linkedIdps;
 
-        HomeIdpDiscoveryConfig config = new HomeIdpDiscoveryConfig(context.getAuthenticatorConfig());
         if (user == null || !config.forwardToLinkedIdp()) {
             linkedIdps = Collections.emptyMap();
             LOG.tracef(
@@ -95,7 +110,6 @@ final class HomeIdpDiscoverer {
                     Collectors.toMap(FederatedIdentityModel::getIdentityProvider, FederatedIdentityModel::getUserName));
         }
 
-        List<IdentityProviderModel> enabledIdps = determineEnabledIdps();
         // Original; lookup mechanism from https://github.com/sventorben/keycloak-home-idp-discovery
         /*
         List<IdentityProviderModel> enabledIdpsWithMatchingDomain = filterIdpsWithMatchingDomainFrom(enabledIdps,
@@ -103,13 +117,7 @@ final class HomeIdpDiscoverer {
             config);
         */
         // Overidden lookup mechanism to lookup via organization domain
-        OrganizationProvider orgs = context.getSession().getProvider(OrganizationProvider.class);
-        List<IdentityProviderModel> enabledIdpsWithMatchingDomain =
-            orgs.getOrganizationsStreamForDomain(
-                    context.getRealm(), domain.toString(), config.requireVerifiedDomain())
-                .flatMap(o -> o.getIdentityProvidersStream())
-                .filter(IdentityProviderModel::isEnabled)
-                .collect(Collectors.toList());
+        List<IdentityProviderModel> enabledIdpsWithMatchingDomain = findOrganizationIdps(domain);
 
         // Prefer linked IdP with matching domain first
         List<IdentityProviderModel> homeIdps = getLinkedIdpsFrom(enabledIdpsWithMatchingDomain, linkedIdps);
@@ -117,7 +125,7 @@ final class HomeIdpDiscoverer {
         if (homeIdps.isEmpty()) {
             if (!linkedIdps.isEmpty()) {
                 // Prefer linked and enabled IdPs without matching domain in favor of not linked IdPs with matching domain
-                homeIdps = getLinkedIdpsFrom(enabledIdps, linkedIdps);
+                homeIdps = getEnabledLinkedIdps(linkedIdps);
             }
             if (homeIdps.isEmpty()) {
                 // Fallback to not linked IdPs with matching domain (general case if user logs in for the first time)
@@ -133,6 +141,70 @@ final class HomeIdpDiscoverer {
         return homeIdps;
     }
 
+    /**
+     * Looks up the IdPs of the organizations owning the domain in the in-memory domain index, so that domains no
+     * organization owns never hit the database. Organizations owning a parent domain only contribute the IdPs that
+     * are configured to match subdomains. The result is remembered until domains or IdPs change.
+     */
+    private List<IdentityProviderModel> findOrganizationIdps(Domain domain) {
+        RealmModel realm = context.getRealm();
+        String key = String.join("/", realm.getId(), domain.toString(),
+            Boolean.toString(config.requireVerifiedDomain()), config.userAttribute());
+        long domainRevision = OrganizationDomainIndex.get().getRevision();
+        long idpRevision = OrganizationIdentityProviderIndex.get().getRevision();
+
+        DomainMatch match = DOMAIN_MATCHES.getIfPresent(key);
+        if (match == null || match.domainRevision != domainRevision || match.idpRevision != idpRevision) {
+            List<String> aliases = lookupOrganizationIdps(realm, domain).stream()
+                .map(IdentityProviderModel::getAlias)
+                .collect(Collectors.toList());
+            match = new DomainMatch(aliases, domainRevision, idpRevision);
+            DOMAIN_MATCHES.put(key, match);
+        }
+        return match.aliases.stream()
+            .map(realm::getIdentityProviderByAlias)
+            .filter(Objects::nonNull)
+            .filter(IdentityProviderModel::isEnabled)
+            .collect(Collectors.toList());
+    }
+
+    private List<IdentityProviderModel> lookupOrganizationIdps(RealmModel realm, Domain domain) {
+        List<OrganizationDomainIndex.Match> matches = OrganizationDomainIndex.get()
+            .lookup(context.getSession(), realm, domain.toString(), config.requireVerifiedDomain());
+        if (matches.isEmpty()) {
+            return Collections.emptyList();
+        }
+        OrganizationProvider orgs = context.getSession().getProvider(OrganizationProvider.class);
+        String userAttributeName = config.userAttribute();
+        Set<String> aliases = new HashSet<>();
+        return matches.stream()
+            .flatMap(m -> {
+                OrganizationModel org = orgs.getOrganizationById(realm, m.getOrganizationId());
+                if (org == null) {
+                    return Stream.empty();
+                }
+                return org.getIdentityProvidersStream()
+                    .filter(idp -> m.isExact() || new IdentityProviderModelConfig(idp).shouldMatchSubdomains(userAttributeName));
+            })
+            .filter(IdentityProviderModel::isEnabled)
+            .filter(idp -> aliases.add(idp.getAlias()))
+            .collect(Collectors.toList());
+    }
+
+    /** Looks up the linked IdPs by alias, rather than going through every IdP of the realm. */
+    private List<IdentityProviderModel> getEnabledLinkedIdps(Map<String, String> linkedIdps) {
+        RealmModel realm = context.getRealm();
+        List<IdentityProviderModel> enabledIdps = linkedIdps.keySet().stream()
+            .map(realm::getIdentityProviderByAlias)
+            .filter(Objects::nonNull)
+            .filter(IdentityProviderModel::isEnabled)
+            .collect(Collectors.toList());
+        LOG.tracef("Enabled linked IdPs in realm '%s': %s",
+            realm.getName(),
+            enabledIdps.stream().map(IdentityProviderModel::getAlias).collect(Collectors.joining(",")));
+        return enabledIdps;
+    }
+
     private void logFoundIdps(String idpQualifier, String domainQualifier, List<IdentityProviderModel> homeIdps, Domain domain, String username) {
         String homeIdpsString = homeIdps.stream()
             .map(IdentityProviderModel::getAlias)
@@ -157,15 +229,15 @@ final class HomeIdpDiscoverer {
         return idpsWithMatchingDomain;
     }
 
-    private List<IdentityProviderModel> determineEnabledIdps() {
-        RealmModel realm = context.getRealm();
-        List<IdentityProviderModel> enabledIdps = realm.getIdentityProvidersStream()
-            .filter(IdentityProviderModel::isEnabled)
-            .collect(Collectors.toList());
-        LOG.tracef("Enabled IdPs in realm '%s': %s",
-            realm.getName(),
-            enabledIdps.stream().map(IdentityProviderModel::getAlias).collect(Collectors.joining(",")));
-        return enabledIdps;
-    }
+    private static final class DomainMatch {
+        private final List<String> aliases;
+        private final long domainRevision;
+        private final long idpRevision;
 
+        DomainMatch(List<String> aliases, long domainRevision, long idpRevision) {
+            this.aliases = aliases;
+            this.domainRevision = domainRevision;
+            this.idpRevision = idpRevision;
+        }
+    }
 }
@@ -3,6 +3,8 @@ package io.phasetwo.service.auth.idp;
 
 import org.keycloak.models.AuthenticatorConfigModel;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
 
 final class HomeIdpDiscoveryConfig {
@@ -14,49 +16,47 @@ final class HomeIdpDiscoveryConfig {
     static final String USER_ATTRIBUTE = "userAttribute";
     static final String FORWARD_TO_FIRST_MATCH = "forwardToFirstMatch";
 
-    private final AuthenticatorConfigModel authenticatorConfigModel;
+    // parsed once, as discovery reads them several times per login
+    private final boolean requireVerifiedEmail;
+    private final boolean requireVerifiedDomain;
+    private final boolean forwardToLinkedIdp;
+    private final boolean bypassLoginPage;
+    private final String userAttribute;
+    private final boolean forwardToFirstMatch;
 
     HomeIdpDiscoveryConfig(AuthenticatorConfigModel authenticatorConfigModel) {
-        this.authenticatorConfigModel = authenticatorConfigModel;
+        Map<String, String> config = Optional.ofNullable(authenticatorConfigModel)
+            .map(AuthenticatorConfigModel::getConfig)
+            .orElse(Collections.emptyMap());
+        this.requireVerifiedEmail = Boolean.parseBoolean(config.getOrDefault(REQUIRE_VERIFIED_EMAIL, "false"));
+        this.requireVerifiedDomain = Boolean.parseBoolean(config.getOrDefault(REQUIRE_VERIFIED_DOMAIN, "false"));
+        this.forwardToLinkedIdp = Boolean.parseBoolean(config.getOrDefault(FORWARD_TO_LINKED_IDP, "false"));
+        this.bypassLoginPage = Boolean.parseBoolean(config.getOrDefault(BYPASS_LOGIN_PAGE, "false"));
+        this.userAttribute = config.getOrDefault(USER_ATTRIBUTE, "email").trim();
+        this.forwardToFirstMatch = Boolean.parseBoolean(config.getOrDefault(FORWARD_TO_FIRST_MATCH, "true"));
     }
 
     boolean requireVerifiedEmail() {
-    return Optional.ofNullable(authenticatorConfigModel)
-        .map(
-            it ->
-                Boolean.parseBoolean(it.getConfig().getOrDefault(REQUIRE_VERIFIED_EMAIL, "false")))
-        .orElse(false);
+        return requireVerifiedEmail;
     }
 
     boolean requireVerifiedDomain() {
-        return Optional.ofNullable(authenticatorConfigModel)
-            .map(
-                it ->
-                    Boolean.parseBoolean(it.getConfig().getOrDefault(REQUIRE_VERIFIED_DOMAIN, "false")))
-            .orElse(false);
+        return requireVerifiedDomain;
     }
 
     boolean forwardToLinkedIdp() {
-        return Optional.ofNullable(authenticatorConfigModel)
-            .map(it -> Boolean.parseBoolean(it.getConfig().getOrDefault(FORWARD_TO_LINKED_IDP, "false")))
-            .orElse(false);
+        return forwardToLinkedIdp;
     }
 
     boolean bypassLoginPage() {
-        return Optional.ofNullable(authenticatorConfigModel)
-            .map(it -> Boolean.parseBoolean(it.getConfig().getOrDefault(BYPASS_LOGIN_PAGE, "false")))
-            .orElse(false);
+        return bypassLoginPage;
     }
 
     String userAttribute() {
-        return Optional.ofNullable(authenticatorConfigModel)
-            .map(it -> it.getConfig().getOrDefault(USER_ATTRIBUTE, "email").trim())
-            .orElse("email");
+        return userAttribute;
     }
 
     boolean forwardToFirstMatch() {
-        return Optional.ofNullable(authenticatorConfigModel)
-            .map(it -> Boolean.parseBoolean(it.getConfig().getOrDefault(FORWARD_TO_FIRST_MATCH, "true")))
-            .orElse(true);
+        return forwardToFirstMatch;
     }
 }
@@ -25,7 +25,7 @@ final class IdentityProviderModelConfig {
                 (shouldMatchSubdomains && domain.isSubDomainOf(it)));
     }
 
-    private boolean shouldMatchSubdomains(String userAttributeName) {
+    boolean shouldMatchSubdomains(String userAttributeName) {
         String key = getSubdomainConfigKey(userAttributeName);
         return Boolean.parseBoolean(identityProviderModel.getConfig().getOrDefault(key, "false"));
     }
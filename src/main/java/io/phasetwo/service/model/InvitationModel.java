@@ -3,6 +3,7 @@ package io.phasetwo.service.model;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Set;
+import org.keycloak.common.util.Time;
 import org.keycloak.models.UserModel;
 
 public interface InvitationModel {
@@ -11,6 +12,8 @@ public interface InvitationModel {
 
   OrganizationModel getOrganization();
 
+  String getOrganizationId();
+
   String getEmail();
 
   void setEmail(String email);
@@ -21,12 +24,24 @@ public interface InvitationModel {
 
   UserModel getInviter();
 
+  String getInviterId();
+
   void setInviter(UserModel user);
 
   Date getCreatedAt();
 
   void setCreatedAt(Date date);
 
+  /** Gets the time after which the invitation can't be accepted, or null if it doesn't expire. */
+  Date getExpiresAt();
+
+  void setExpiresAt(Date date);
+
+  default boolean isExpired() {
+    Date expiresAt = getExpiresAt();
+    return expiresAt != null && expiresAt.getTime() <= Time.currentTimeMillis();
+  }
+
   Set<String> getRoles();
 
   void setRoles(Collection<String> roles);
@@ -2,6 +2,9 @@ package io.phasetwo.service.model;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.MoreCollectors;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -80,12 +83,30 @@ public interface OrganizationModel {
 
   void revokeMembership(UserModel user);
 
+  /**
+   * Grants membership to the users with the given ids that are not members yet. The ids must
+   * belong to existing users of the realm.
+   *
+   * @return the ids of the users that were added
+   */
+  Set<String> grantMemberships(Set<String> userIds);
+
   Stream<InvitationModel> getInvitationsStream();
 
+  /** Searches for invitations with an email containing the search string, ordered by email. */
+  Stream<InvitationModel> searchForInvitationsStream(
+      String search, Integer firstResult, Integer maxResults);
+
+  InvitationModel getInvitationById(String id);
+
   default Stream<InvitationModel> getInvitationsByEmail(String email) {
     return getInvitationsStream().filter(i -> i.getEmail().equals(email));
   }
 
+  default Stream<InvitationModel> getInvitationsByEmails(Collection<String> emails) {
+    return getInvitationsStream().filter(i -> emails.contains(i.getEmail()));
+  }
+
   void revokeInvitation(String id);
 
   void revokeInvitations(String email);
@@ -101,6 +122,27 @@ public interface OrganizationModel {
         .orElse(null);
   }
 
+  default OrganizationRoleModel getRoleById(String id) {
+    return getRolesStream()
+        .filter(r -> id.equals(r.getId()))
+        .collect(MoreCollectors.toOptional())
+        .orElse(null);
+  }
+
+  /** Gets the names of the roles granted to each of the members, by user id. */
+  default Map<String, Set<String>> getMemberRoleNames(Collection<UserModel> members) {
+    List<OrganizationRoleModel> roles = getRolesStream().toList();
+    Map<String, Set<String>> names = new HashMap<>();
+    for (UserModel member : members) {
+      for (OrganizationRoleModel role : roles) {
+        if (role.hasRole(member)) {
+          names.computeIfAbsent(member.getId(), k -> new HashSet<>()).add(role.getName());
+        }
+      }
+    }
+    return names;
+  }
+
   void removeRole(String name);
 
   OrganizationRoleModel addRole(String name);
@@ -118,4 +160,7 @@ public interface OrganizationModel {
   interface OrganizationCreationEvent extends OrganizationEvent {}
 
   interface OrganizationRemovedEvent extends OrganizationEvent {}
+
+  /** Published when the name or display name of an organization changed. */
+  interface OrganizationRenamedEvent extends OrganizationEvent {}
 }
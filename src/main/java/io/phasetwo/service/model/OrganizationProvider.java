@@ -2,8 +2,11 @@ package io.phasetwo.service.model;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
@@ -21,6 +24,25 @@ public interface OrganizationProvider extends Provider {
 
   Stream<OrganizationModel> getUserOrganizationsStream(RealmModel realm, UserModel user);
 
+  /**
+   * Gets the organizations of which the user is a member, each mapped to the names of the
+   * organization roles the user holds in it.
+   */
+  default Map<OrganizationModel, List<String>> getUserOrganizationRoles(
+      RealmModel realm, UserModel user) {
+    Map<OrganizationModel, List<String>> roles = new LinkedHashMap<>();
+    getUserOrganizationsStream(realm, user)
+        .forEach(
+            o ->
+                roles.put(
+                    o,
+                    o.getRolesStream()
+                        .filter(r -> r.hasRole(user))
+                        .map(OrganizationRoleModel::getName)
+                        .collect(Collectors.toList())));
+    return roles;
+  }
+
   Stream<OrganizationModel> searchForOrganizationStream(
       RealmModel realm,
       Map<String, String> attributes,
@@ -28,6 +50,19 @@ public interface OrganizationProvider extends Provider {
       Integer maxResults,
       Optional<UserModel> member);
 
+  /**
+   * Searches like {@link #searchForOrganizationStream searchForOrganizationStream}, but pages by
+   * position instead of offset. Results are ordered by name and id, and start right after the
+   * organization with the given name and id, or at the beginning if they are null.
+   */
+  Stream<OrganizationModel> searchForOrganizationStreamAfter(
+      RealmModel realm,
+      Map<String, String> attributes,
+      String afterName,
+      String afterId,
+      Integer maxResults,
+      Optional<UserModel> member);
+
   Long getOrganizationsCount(RealmModel realm, String search);
 
   boolean removeOrganization(RealmModel realm, String id);
@@ -36,6 +71,15 @@ public interface OrganizationProvider extends Provider {
 
   Stream<InvitationModel> getUserInvitationsStream(RealmModel realm, UserModel user);
 
+  /** Whether the user has an invitation to an organization of the realm. */
+  boolean hasUserInvitations(RealmModel realm, UserModel user);
+
+  /**
+   * Removes the memberships, organization role mappings and invitations of a user that is being
+   * removed from the realm.
+   */
+  void preRemove(RealmModel realm, UserModel user);
+
   // deprecated methods
 
   /**
@@ -0,0 +1,46 @@
+package io.phasetwo.service.model.cache;
+
+import com.google.common.collect.ImmutableSet;
+import io.phasetwo.service.model.DomainModel;
+import io.phasetwo.service.model.OrganizationModel;
+import org.keycloak.models.RealmModel;
+
+public class CachedDomainAdapter implements DomainModel {
+
+  protected final RealmModel realm;
+  protected final CachedOrganizationProvider provider;
+  protected final CachedOrganizationAdapter organization;
+  protected final DomainModel delegate;
+
+  public CachedDomainAdapter(
+      RealmModel realm,
+      CachedOrganizationProvider provider,
+      CachedOrganizationAdapter organization,
+      DomainModel delegate) {
+    this.realm = realm;
+    this.provider = provider;
+    this.organization = organization;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getDomain() {
+    return delegate.getDomain();
+  }
+
+  @Override
+  public boolean isVerified() {
+    return delegate.isVerified();
+  }
+
+  @Override
+  public void setVerified(boolean verified) {
+    provider.registerDomainInvalidations(realm, ImmutableSet.of(getDomain()));
+    delegate.setVerified(verified);
+  }
+
+  @Override
+  public OrganizationModel getOrganization() {
+    return organization;
+  }
+}
@@ -0,0 +1,31 @@
+package io.phasetwo.service.model.cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Immutable snapshot of the organizations a user belongs to and the role ids held in each. */
+public class CachedMemberships {
+
+  private final Map<String, Set<String>> roles;
+
+  public CachedMemberships(Map<String, Set<String>> roles) {
+    ImmutableMap.Builder<String, Set<String>> builder = ImmutableMap.builder();
+    roles.forEach((k, v) -> builder.put(k, ImmutableSet.copyOf(v)));
+    this.roles = builder.build();
+  }
+
+  public Set<String> getOrganizationIds() {
+    return roles.keySet();
+  }
+
+  public boolean isMember(String orgId) {
+    return roles.containsKey(orgId);
+  }
+
+  public boolean hasRole(String orgId, String roleId) {
+    Set<String> r = roles.get(orgId);
+    return r != null && r.contains(roleId);
+  }
+}
@@ -0,0 +1,73 @@
+package io.phasetwo.service.model.cache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.phasetwo.service.model.OrganizationModel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.models.RealmModel;
+
+/** Immutable snapshot of an organization, its domains, attributes and roles. */
+public class CachedOrganization {
+
+  private final String id;
+  private final String realmId;
+  private final String name;
+  private final String displayName;
+  private final String url;
+  private final Set<String> domains;
+  private final MultivaluedHashMap<String, String> attributes;
+  private final List<CachedOrganizationRole> roles;
+
+  public CachedOrganization(RealmModel realm, OrganizationModel model) {
+    this.id = model.getId();
+    this.realmId = realm.getId();
+    this.name = model.getName();
+    this.displayName = model.getDisplayName();
+    this.url = model.getUrl();
+    this.domains = ImmutableSet.copyOf(model.getDomains());
+    this.attributes = new MultivaluedHashMap<>();
+    model.getAttributes().forEach((k, v) -> attributes.addAll(k, v));
+    this.roles =
+        model
+            .getRolesStream()
+            .map(CachedOrganizationRole::new)
+            .collect(ImmutableList.toImmutableList());
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public Set<String> getDomains() {
+    return domains;
+  }
+
+  public Map<String, List<String>> getAttributes() {
+    MultivaluedHashMap<String, String> copy = new MultivaluedHashMap<>();
+    attributes.forEach((k, v) -> copy.addAll(k, v));
+    return copy;
+  }
+
+  public List<CachedOrganizationRole> getRoles() {
+    return roles;
+  }
+}
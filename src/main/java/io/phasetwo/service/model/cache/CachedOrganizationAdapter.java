@@ -0,0 +1,295 @@
+package io.phasetwo.service.model.cache;
+
+import static io.phasetwo.service.model.cache.OrganizationCacheManager.organizationKey;
+
+import io.phasetwo.service.model.DomainModel;
+import io.phasetwo.service.model.InvitationModel;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationRoleModel;
+import io.phasetwo.service.model.jpa.OrganizationIdentityProviderIndex;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class CachedOrganizationAdapter implements OrganizationModel {
+
+  protected final KeycloakSession session;
+  protected final RealmModel realm;
+  protected final CachedOrganizationProvider provider;
+  protected final CachedOrganization cached;
+  protected OrganizationModel updated;
+
+  public CachedOrganizationAdapter(
+      KeycloakSession session,
+      RealmModel realm,
+      CachedOrganizationProvider provider,
+      CachedOrganization cached,
+      OrganizationModel updated) {
+    this.session = session;
+    this.realm = realm;
+    this.provider = provider;
+    this.cached = cached;
+    this.updated = updated;
+  }
+
+  protected boolean isUpdated() {
+    return cached == null || provider.isInvalid(organizationKey(getId()));
+  }
+
+  protected OrganizationModel getDelegate() {
+    if (updated == null) {
+      updated = provider.getDelegate().getOrganizationById(realm, getId());
+      if (updated == null) throw new IllegalStateException("Not found in database");
+    }
+    return updated;
+  }
+
+  protected OrganizationModel getDelegateForUpdate() {
+    provider.registerOrganizationInvalidation(getId());
+    return getDelegate();
+  }
+
+  String getRealmId() {
+    return cached != null ? cached.getRealmId() : realm.getId();
+  }
+
+  @Override
+  public String getId() {
+    return cached != null ? cached.getId() : updated.getId();
+  }
+
+  @Override
+  public String getName() {
+    return isUpdated() ? getDelegate().getName() : cached.getName();
+  }
+
+  @Override
+  public void setName(String name) {
+    getDelegateForUpdate().setName(name);
+  }
+
+  @Override
+  public String getDisplayName() {
+    return isUpdated() ? getDelegate().getDisplayName() : cached.getDisplayName();
+  }
+
+  @Override
+  public void setDisplayName(String displayName) {
+    getDelegateForUpdate().setDisplayName(displayName);
+  }
+
+  @Override
+  public Set<String> getDomains() {
+    return isUpdated() ? getDelegate().getDomains() : new HashSet<>(cached.getDomains());
+  }
+
+  @Override
+  public void setDomains(Set<String> domains) {
+    provider.registerDomainInvalidations(realm, getDomains());
+    provider.registerDomainInvalidations(realm, domains);
+    getDelegateForUpdate().setDomains(domains);
+  }
+
+  @Override
+  public DomainModel getDomain(String name) {
+    DomainModel domain = getDelegate().getDomain(name);
+    return domain == null ? null : new CachedDomainAdapter(realm, provider, this, domain);
+  }
+
+  @Override
+  public String getUrl() {
+    return isUpdated() ? getDelegate().getUrl() : cached.getUrl();
+  }
+
+  @Override
+  public void setUrl(String url) {
+    getDelegateForUpdate().setUrl(url);
+  }
+
+  @Override
+  public RealmModel getRealm() {
+    return realm;
+  }
+
+  @Override
+  public UserModel getCreatedBy() {
+    return getDelegate().getCreatedBy();
+  }
+
+  @Override
+  public Map<String, List<String>> getAttributes() {
+    return isUpdated() ? getDelegate().getAttributes() : cached.getAttributes();
+  }
+
+  @Override
+  public void removeAttributes() {
+    getDelegateForUpdate().removeAttributes();
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    getDelegateForUpdate().removeAttribute(name);
+  }
+
+  @Override
+  public void setAttribute(String name, List<String> values) {
+    getDelegateForUpdate().setAttribute(name, values);
+  }
+
+  @Override
+  public Long getMembersCount() {
+    return getDelegate().getMembersCount();
+  }
+
+  @Override
+  public Stream<UserModel> getMembersStream() {
+    return getDelegate().getMembersStream();
+  }
+
+  @Override
+  public Stream<UserModel> searchForMembersStream(
+      String search, Integer firstResult, Integer maxResults) {
+    return getDelegate().searchForMembersStream(search, firstResult, maxResults);
+  }
+
+  @Override
+  public boolean hasMembership(UserModel user) {
+    CachedMemberships memberships = provider.getMemberships(realm, user);
+    return memberships == null ? getDelegate().hasMembership(user) : memberships.isMember(getId());
+  }
+
+  @Override
+  public void grantMembership(UserModel user) {
+    provider.registerUserInvalidation(user.getId());
+    getDelegate().grantMembership(user);
+  }
+
+  @Override
+  public Set<String> grantMemberships(Set<String> userIds) {
+    userIds.forEach(provider::registerUserInvalidation);
+    return getDelegate().grantMemberships(userIds);
+  }
+
+  @Override
+  public void revokeMembership(UserModel user) {
+    provider.registerUserInvalidation(user.getId());
+    getDelegate().revokeMembership(user);
+  }
+
+  @Override
+  public Stream<InvitationModel> getInvitationsStream() {
+    return getDelegate().getInvitationsStream();
+  }
+
+  @Override
+  public Stream<InvitationModel> searchForInvitationsStream(
+      String search, Integer firstResult, Integer maxResults) {
+    return getDelegate().searchForInvitationsStream(search, firstResult, maxResults);
+  }
+
+  @Override
+  public InvitationModel getInvitationById(String id) {
+    return getDelegate().getInvitationById(id);
+  }
+
+  @Override
+  public Stream<InvitationModel> getInvitationsByEmail(String email) {
+    return getDelegate().getInvitationsByEmail(email);
+  }
+
+  @Override
+  public Stream<InvitationModel> getInvitationsByEmails(Collection<String> emails) {
+    return getDelegate().getInvitationsByEmails(emails);
+  }
+
+  @Override
+  public void revokeInvitation(String id) {
+    getDelegate().revokeInvitation(id);
+  }
+
+  @Override
+  public void revokeInvitations(String email) {
+    getDelegate().revokeInvitations(email);
+  }
+
+  @Override
+  public InvitationModel addInvitation(String email, UserModel inviter) {
+    return getDelegate().addInvitation(email, inviter);
+  }
+
+  @Override
+  public Stream<OrganizationRoleModel> getRolesStream() {
+    if (isUpdated()) {
+      return getDelegate()
+          .getRolesStream()
+          .map(r -> new CachedOrganizationRoleAdapter(realm, provider, this, null, r));
+    }
+    return cached.getRoles().stream()
+        .map(r -> new CachedOrganizationRoleAdapter(realm, provider, this, r, null));
+  }
+
+  @Override
+  public OrganizationRoleModel getRoleById(String id) {
+    if (isUpdated()) {
+      OrganizationRoleModel role = getDelegate().getRoleById(id);
+      return role == null
+          ? null
+          : new CachedOrganizationRoleAdapter(realm, provider, this, null, role);
+    }
+    return cached.getRoles().stream()
+        .filter(r -> id.equals(r.getId()))
+        .findFirst()
+        .map(r -> new CachedOrganizationRoleAdapter(realm, provider, this, r, null))
+        .orElse(null);
+  }
+
+  @Override
+  public Map<String, Set<String>> getMemberRoleNames(Collection<UserModel> members) {
+    return getDelegate().getMemberRoleNames(members);
+  }
+
+  @Override
+  public void removeRole(String name) {
+    // the role mappings of the users go with the role
+    OrganizationRoleModel role = getDelegateForUpdate().getRoleByName(name);
+    if (role != null) {
+      role.getUserMappingsStream()
+          .filter(Objects::nonNull)
+          .forEach(u -> provider.registerUserInvalidation(u.getId()));
+    }
+    getDelegate().removeRole(name);
+  }
+
+  @Override
+  public OrganizationRoleModel addRole(String name) {
+    OrganizationRoleModel role = getDelegateForUpdate().addRole(name);
+    return new CachedOrganizationRoleAdapter(realm, provider, this, null, role);
+  }
+
+  @Override
+  public Stream<IdentityProviderModel> getIdentityProvidersStream() {
+    // served from the identity provider index, so the organization need not be loaded
+    return OrganizationIdentityProviderIndex.get()
+        .getIdentityProvidersStream(session, realm, getId());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof OrganizationModel)) return false;
+    return getId().equals(((OrganizationModel) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return getId().hashCode();
+  }
+}
@@ -0,0 +1,321 @@
+package io.phasetwo.service.model.cache;
+
+import static io.phasetwo.service.model.cache.OrganizationCacheManager.domainKey;
+import static io.phasetwo.service.model.cache.OrganizationCacheManager.membershipsKey;
+import static io.phasetwo.service.model.cache.OrganizationCacheManager.organizationKey;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.net.InternetDomainName;
+import io.phasetwo.service.model.InvitationModel;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.model.OrganizationRoleModel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Caching layer over the JPA organization provider, in the same spirit as the Keycloak realm
+ * cache. Reads are served from the local cache. Writes go through to the delegate and register
+ * invalidations, which are applied locally and sent to the cluster when the transaction completes.
+ * Keys invalidated in this session are always read from the delegate.
+ */
+@JBossLog
+public class CachedOrganizationProvider implements OrganizationProvider {
+
+  protected final KeycloakSession session;
+  protected final OrganizationProvider delegate;
+  protected final OrganizationCacheManager cache;
+
+  protected final Set<String> invalidations = new HashSet<>();
+  protected final Map<String, CachedOrganizationAdapter> managedOrganizations = new HashMap<>();
+  protected boolean clearAll = false;
+  protected boolean transactionActive = false;
+
+  public CachedOrganizationProvider(
+      KeycloakSession session, OrganizationProvider delegate, OrganizationCacheManager cache) {
+    this.session = session;
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  public OrganizationProvider getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public OrganizationModel createOrganization(
+      RealmModel realm, String name, UserModel createdBy, boolean admin) {
+    registerUserInvalidation(createdBy.getId());
+    OrganizationModel org = delegate.createOrganization(realm, name, createdBy, admin);
+    registerOrganizationInvalidation(org.getId());
+    return getOrganizationById(realm, org.getId());
+  }
+
+  @Override
+  public OrganizationModel getOrganizationById(RealmModel realm, String id) {
+    CachedOrganizationAdapter adapter = managedOrganizations.get(id);
+    if (adapter == null) {
+      adapter = loadOrganization(realm, id);
+      if (adapter == null) return null;
+      managedOrganizations.put(id, adapter);
+    }
+    return realm.getId().equals(adapter.getRealmId()) ? adapter : null;
+  }
+
+  private CachedOrganizationAdapter loadOrganization(RealmModel realm, String id) {
+    String key = organizationKey(id);
+    if (isInvalid(key)) {
+      OrganizationModel model = delegate.getOrganizationById(realm, id);
+      return model == null
+          ? null
+          : new CachedOrganizationAdapter(session, realm, this, null, model);
+    }
+    CachedOrganization cached = cache.get(key, CachedOrganization.class);
+    if (cached == null) {
+      long revision = cache.getCurrentRevision();
+      OrganizationModel model = delegate.getOrganizationById(realm, id);
+      if (model == null) return null;
+      cached = new CachedOrganization(realm, model);
+      cache.addRevisioned(key, cached, revision);
+    }
+    return new CachedOrganizationAdapter(session, realm, this, cached, null);
+  }
+
+  @Override
+  public Stream<OrganizationModel> getOrganizationsStreamForDomain(
+      RealmModel realm, String domain, boolean verified) {
+    domain = InternetDomainName.from(domain).toString();
+    String key = domainKey(realm.getId(), domain, verified);
+    List<String> ids = null;
+    if (!isInvalid(key)) {
+      @SuppressWarnings("unchecked")
+      List<String> cached = cache.get(key, List.class);
+      ids = cached;
+      if (ids == null) {
+        long revision = cache.getCurrentRevision();
+        ids =
+            delegate
+                .getOrganizationsStreamForDomain(realm, domain, verified)
+                .map(OrganizationModel::getId)
+                .collect(ImmutableList.toImmutableList());
+        cache.addRevisioned(key, ids, revision);
+      }
+    } else {
+      ids =
+          delegate
+              .getOrganizationsStreamForDomain(realm, domain, verified)
+              .map(OrganizationModel::getId)
+              .collect(Collectors.toList());
+    }
+    return ids.stream().map(id -> getOrganizationById(realm, id)).filter(Objects::nonNull);
+  }
+
+  @Override
+  public Stream<OrganizationModel> getUserOrganizationsStream(RealmModel realm, UserModel user) {
+    CachedMemberships memberships = getMemberships(realm, user);
+    Stream<String> ids =
+        memberships == null
+            ? delegate.getUserOrganizationsStream(realm, user).map(OrganizationModel::getId)
+            : memberships.getOrganizationIds().stream();
+    return ids.map(id -> getOrganizationById(realm, id)).filter(Objects::nonNull);
+  }
+
+  @Override
+  public Map<OrganizationModel, List<String>> getUserOrganizationRoles(
+      RealmModel realm, UserModel user) {
+    Map<OrganizationModel, List<String>> roles = new LinkedHashMap<>();
+    CachedMemberships memberships = getMemberships(realm, user);
+    if (memberships == null) {
+      delegate
+          .getUserOrganizationRoles(realm, user)
+          .forEach(
+              (o, names) -> {
+                OrganizationModel org = getOrganizationById(realm, o.getId());
+                if (org != null) roles.put(org, names);
+              });
+    } else {
+      memberships.getOrganizationIds().stream()
+          .map(id -> getOrganizationById(realm, id))
+          .filter(Objects::nonNull)
+          .forEach(
+              o ->
+                  roles.put(
+                      o,
+                      o.getRolesStream()
+                          .filter(r -> memberships.hasRole(o.getId(), r.getId()))
+                          .map(OrganizationRoleModel::getName)
+                          .collect(Collectors.toList())));
+    }
+    return roles;
+  }
+
+  @Override
+  public Stream<OrganizationModel> searchForOrganizationStream(
+      RealmModel realm,
+      Map<String, String> attributes,
+      Integer firstResult,
+      Integer maxResults,
+      Optional<UserModel> member) {
+    return delegate
+        .searchForOrganizationStream(realm, attributes, firstResult, maxResults, member)
+        .map(o -> getOrganizationById(realm, o.getId()))
+        .filter(Objects::nonNull);
+  }
+
+  @Override
+  public Stream<OrganizationModel> searchForOrganizationStreamAfter(
+      RealmModel realm,
+      Map<String, String> attributes,
+      String afterName,
+      String afterId,
+      Integer maxResults,
+      Optional<UserModel> member) {
+    return delegate
+        .searchForOrganizationStreamAfter(
+            realm, attributes, afterName, afterId, maxResults, member)
+        .map(o -> getOrganizationById(realm, o.getId()))
+        .filter(Objects::nonNull);
+  }
+
+  @Override
+  public Long getOrganizationsCount(RealmModel realm, String search) {
+    return delegate.getOrganizationsCount(realm, search);
+  }
+
+  @Override
+  public boolean removeOrganization(RealmModel realm, String id) {
+    OrganizationModel org = getOrganizationById(realm, id);
+    if (org != null) registerDomainInvalidations(realm, org.getDomains());
+    registerOrganizationInvalidation(id);
+    managedOrganizations.remove(id);
+    return delegate.removeOrganization(realm, id);
+  }
+
+  @Override
+  public void removeOrganizations(RealmModel realm) {
+    registerClearAll();
+    managedOrganizations.clear();
+    delegate.removeOrganizations(realm);
+  }
+
+  @Override
+  public Stream<InvitationModel> getUserInvitationsStream(RealmModel realm, UserModel user) {
+    return delegate.getUserInvitationsStream(realm, user);
+  }
+
+  @Override
+  public boolean hasUserInvitations(RealmModel realm, UserModel user) {
+    return delegate.hasUserInvitations(realm, user);
+  }
+
+  @Override
+  public void preRemove(RealmModel realm, UserModel user) {
+    registerUserInvalidation(user.getId());
+    delegate.preRemove(realm, user);
+  }
+
+  @Override
+  public void close() {}
+
+  /**
+   * @return the organizations and roles of the user, or null if the user was invalidated in this
+   *     session and the delegate must be used
+   */
+  CachedMemberships getMemberships(RealmModel realm, UserModel user) {
+    String key = membershipsKey(user.getId());
+    if (isInvalid(key)) return null;
+    CachedMemberships cached = cache.get(key, CachedMemberships.class);
+    if (cached == null) {
+      long revision = cache.getCurrentRevision();
+      // the held role names of every organization come from one query, and are mapped to ids
+      // with the roles of the cached organizations
+      Map<String, Set<String>> roles = Maps.newHashMap();
+      delegate
+          .getUserOrganizationRoles(realm, user)
+          .forEach(
+              (o, names) -> {
+                if (names.isEmpty()) {
+                  roles.put(o.getId(), Set.of());
+                  return;
+                }
+                OrganizationModel org = getOrganizationById(realm, o.getId());
+                if (org == null) return;
+                roles.put(
+                    o.getId(),
+                    org.getRolesStream()
+                        .filter(r -> names.contains(r.getName()))
+                        .map(OrganizationRoleModel::getId)
+                        .collect(Collectors.toSet()));
+              });
+      cached = new CachedMemberships(roles);
+      cache.addRevisioned(key, cached, revision);
+    }
+    return cached;
+  }
+
+  boolean isInvalid(String key) {
+    return clearAll || invalidations.contains(key);
+  }
+
+  void registerOrganizationInvalidation(String orgId) {
+    registerInvalidation(organizationKey(orgId));
+  }
+
+  void registerUserInvalidation(String userId) {
+    registerInvalidation(membershipsKey(userId));
+  }
+
+  void registerDomainInvalidations(RealmModel realm, Collection<String> domains) {
+    domains.forEach(
+        d -> {
+          String domain = d.toLowerCase();
+          registerInvalidation(domainKey(realm.getId(), domain, true));
+          registerInvalidation(domainKey(realm.getId(), domain, false));
+        });
+  }
+
+  private void registerClearAll() {
+    clearAll = true;
+    ensureTransaction();
+  }
+
+  private void registerInvalidation(String key) {
+    invalidations.add(key);
+    ensureTransaction();
+  }
+
+  private void ensureTransaction() {
+    if (transactionActive) return;
+    transactionActive = true;
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                log.tracef("Sending organization cache invalidations %s", invalidations);
+                cache.sendInvalidations(session, invalidations, clearAll);
+              }
+
+              @Override
+              protected void rollbackImpl() {
+                // nothing was put for invalidated keys, so there is nothing to undo
+              }
+            });
+  }
+}
@@ -0,0 +1,98 @@
+package io.phasetwo.service.model.cache;
+
+import com.google.auto.service.AutoService;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.model.OrganizationProviderFactory;
+import io.phasetwo.service.model.jpa.JpaOrganizationProviderFactory;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.keycloak.Config.Scope;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Opt-in caching OrganizationProvider. Enable with {@code
+ * --spi-organization-provider-provider=cached-organization}. The size and lifespan of the local
+ * cache can be tuned with the {@code max-entries} and {@code lifespan} (seconds) options.
+ */
+@JBossLog
+@AutoService(OrganizationProviderFactory.class)
+public class CachedOrganizationProviderFactory implements OrganizationProviderFactory {
+
+  public static final String PROVIDER_ID = "cached-organization";
+
+  private long maxEntries;
+  private long lifespan;
+  private volatile OrganizationCacheManager cacheManager;
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+
+  @Override
+  public int order() {
+    // the jpa provider stays the default
+    return -1;
+  }
+
+  @Override
+  public OrganizationProvider create(KeycloakSession session) {
+    lazyInit(session);
+    OrganizationProvider delegate =
+        session.getProvider(OrganizationProvider.class, JpaOrganizationProviderFactory.PROVIDER_ID);
+    return new CachedOrganizationProvider(session, delegate, cacheManager);
+  }
+
+  private void lazyInit(KeycloakSession session) {
+    if (cacheManager != null) return;
+    synchronized (this) {
+      if (cacheManager != null) return;
+      EmbeddedCacheManager manager =
+          session
+              .getProvider(InfinispanConnectionProvider.class)
+              .getCache(InfinispanConnectionProvider.REALM_CACHE_NAME)
+              .getCacheManager();
+      if (manager.getCacheConfiguration(OrganizationCacheManager.CACHE_NAME) == null) {
+        log.debugf(
+            "Defining local %s cache with maxEntries=%d lifespan=%ds",
+            OrganizationCacheManager.CACHE_NAME, maxEntries, lifespan);
+        manager.defineConfiguration(
+            OrganizationCacheManager.CACHE_NAME,
+            new ConfigurationBuilder()
+                .clustering()
+                .cacheMode(CacheMode.LOCAL)
+                .memory()
+                .maxCount(maxEntries)
+                .expiration()
+                .lifespan(lifespan, TimeUnit.SECONDS)
+                .build());
+      }
+      Cache<String, Object> cache = manager.getCache(OrganizationCacheManager.CACHE_NAME);
+      OrganizationCacheManager ocm = new OrganizationCacheManager(cache);
+      ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+      if (cluster != null) {
+        cluster.registerListener(OrganizationCacheManager.INVALIDATION_EVENTS, ocm::eventReceived);
+      }
+      cacheManager = ocm;
+    }
+  }
+
+  @Override
+  public void init(Scope config) {
+    maxEntries = config.getLong("maxEntries", 10000L);
+    lifespan = config.getLong("lifespan", 3600L);
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {}
+
+  @Override
+  public void close() {}
+}
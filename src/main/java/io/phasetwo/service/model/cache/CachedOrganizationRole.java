@@ -0,0 +1,29 @@
+package io.phasetwo.service.model.cache;
+
+import io.phasetwo.service.model.OrganizationRoleModel;
+
+/** Immutable snapshot of an organization role. */
+public class CachedOrganizationRole {
+
+  private final String id;
+  private final String name;
+  private final String description;
+
+  public CachedOrganizationRole(OrganizationRoleModel model) {
+    this.id = model.getId();
+    this.name = model.getName();
+    this.description = model.getDescription();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+}
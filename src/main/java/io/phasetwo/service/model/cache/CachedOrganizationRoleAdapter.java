@@ -0,0 +1,92 @@
+package io.phasetwo.service.model.cache;
+
+import io.phasetwo.service.model.OrganizationRoleModel;
+import java.util.stream.Stream;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class CachedOrganizationRoleAdapter implements OrganizationRoleModel {
+
+  protected final RealmModel realm;
+  protected final CachedOrganizationProvider provider;
+  protected final CachedOrganizationAdapter organization;
+  protected final CachedOrganizationRole cached;
+  protected OrganizationRoleModel updated;
+
+  public CachedOrganizationRoleAdapter(
+      RealmModel realm,
+      CachedOrganizationProvider provider,
+      CachedOrganizationAdapter organization,
+      CachedOrganizationRole cached,
+      OrganizationRoleModel updated) {
+    this.realm = realm;
+    this.provider = provider;
+    this.organization = organization;
+    this.cached = cached;
+    this.updated = updated;
+  }
+
+  protected boolean isUpdated() {
+    return cached == null || organization.isUpdated();
+  }
+
+  protected OrganizationRoleModel getDelegate() {
+    if (updated == null) {
+      updated = organization.getDelegate().getRoleById(getId());
+      if (updated == null) throw new IllegalStateException("Not found in database");
+    }
+    return updated;
+  }
+
+  @Override
+  public String getId() {
+    return cached != null ? cached.getId() : updated.getId();
+  }
+
+  @Override
+  public String getName() {
+    return isUpdated() ? getDelegate().getName() : cached.getName();
+  }
+
+  @Override
+  public void setName(String name) {
+    provider.registerOrganizationInvalidation(organization.getId());
+    getDelegate().setName(name);
+  }
+
+  @Override
+  public String getDescription() {
+    return isUpdated() ? getDelegate().getDescription() : cached.getDescription();
+  }
+
+  @Override
+  public void setDescription(String description) {
+    provider.registerOrganizationInvalidation(organization.getId());
+    getDelegate().setDescription(description);
+  }
+
+  @Override
+  public Stream<UserModel> getUserMappingsStream() {
+    return getDelegate().getUserMappingsStream();
+  }
+
+  @Override
+  public void grantRole(UserModel user) {
+    provider.registerUserInvalidation(user.getId());
+    getDelegate().grantRole(user);
+  }
+
+  @Override
+  public void revokeRole(UserModel user) {
+    provider.registerUserInvalidation(user.getId());
+    getDelegate().revokeRole(user);
+  }
+
+  @Override
+  public boolean hasRole(UserModel user) {
+    CachedMemberships memberships = provider.getMemberships(realm, user);
+    return memberships == null
+        ? getDelegate().hasRole(user)
+        : memberships.hasRole(organization.getId(), getId());
+  }
+}
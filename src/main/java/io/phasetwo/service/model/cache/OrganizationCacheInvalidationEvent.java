@@ -0,0 +1,34 @@
+package io.phasetwo.service.model.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.keycloak.cluster.ClusterEvent;
+
+/** Sent to the other nodes when organization cache entries were invalidated by a write. */
+public class OrganizationCacheInvalidationEvent implements ClusterEvent, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final HashSet<String> keys;
+  private final boolean clear;
+
+  public OrganizationCacheInvalidationEvent(Collection<String> keys, boolean clear) {
+    this.keys = new HashSet<>(keys);
+    this.clear = clear;
+  }
+
+  public Set<String> getKeys() {
+    return keys;
+  }
+
+  public boolean isClear() {
+    return clear;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("OrganizationCacheInvalidationEvent [ keys=%s, clear=%b ]", keys, clear);
+  }
+}
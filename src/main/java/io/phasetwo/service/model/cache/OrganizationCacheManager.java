@@ -0,0 +1,95 @@
+package io.phasetwo.service.model.cache;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+import org.infinispan.Cache;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Holds the node-local organization cache. Entries are only added if no invalidation happened
+ * between the start of the database load and the put, so a load racing with a write on another
+ * node can never leave a stale entry behind.
+ */
+@JBossLog
+public class OrganizationCacheManager {
+
+  public static final String CACHE_NAME = "organizations";
+  public static final String INVALIDATION_EVENTS = "ORGANIZATION_CACHE_INVALIDATION_EVENTS";
+
+  private final Cache<String, Object> cache;
+  private final AtomicLong revision = new AtomicLong();
+
+  public OrganizationCacheManager(Cache<String, Object> cache) {
+    this.cache = cache;
+  }
+
+  public static String organizationKey(String orgId) {
+    return "org." + orgId;
+  }
+
+  public static String membershipsKey(String userId) {
+    return "memberships." + userId;
+  }
+
+  public static String domainKey(String realmId, String domain, boolean verified) {
+    return String.format("domain.%s.%s.%b", realmId, domain, verified);
+  }
+
+  public <T> T get(String key, Class<T> type) {
+    Object o = cache.get(key);
+    return type.isInstance(o) ? type.cast(o) : null;
+  }
+
+  public long getCurrentRevision() {
+    return revision.get();
+  }
+
+  public synchronized void addRevisioned(String key, Object value, long startupRevision) {
+    if (revision.get() == startupRevision) {
+      cache.put(key, value);
+    } else {
+      log.tracef("Skipping cache put of %s. Invalidated during load.", key);
+    }
+  }
+
+  public synchronized void invalidate(Collection<String> keys) {
+    revision.incrementAndGet();
+    keys.forEach(cache::remove);
+  }
+
+  public synchronized void clear() {
+    revision.incrementAndGet();
+    cache.clear();
+  }
+
+  /** Apply the invalidations locally and notify the other nodes in the cluster. */
+  public void sendInvalidations(KeycloakSession session, Collection<String> keys, boolean clear) {
+    if (clear) {
+      clear();
+    } else {
+      invalidate(keys);
+    }
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.notify(
+          INVALIDATION_EVENTS,
+          new OrganizationCacheInvalidationEvent(keys, clear),
+          true,
+          ClusterProvider.DCNotify.ALL_DCS);
+    }
+  }
+
+  void eventReceived(ClusterEvent event) {
+    if (!(event instanceof OrganizationCacheInvalidationEvent)) return;
+    OrganizationCacheInvalidationEvent e = (OrganizationCacheInvalidationEvent) event;
+    log.tracef("Received organization cache invalidation %s", e);
+    if (e.isClear()) {
+      clear();
+    } else {
+      invalidate(e.getKeys());
+    }
+  }
+}
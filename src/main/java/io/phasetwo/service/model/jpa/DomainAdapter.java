@@ -48,6 +48,8 @@ public class DomainAdapter implements DomainModel, JpaModel<DomainEntity> {
 
   @Override
   public void setVerified(boolean verified) {
+    if (verified == domain.isVerified()) return;
     domain.setVerified(verified);
+    OrganizationDomainIndex.get().invalidate(session, realm);
   }
 }
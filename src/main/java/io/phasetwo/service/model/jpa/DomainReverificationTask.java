@@ -0,0 +1,105 @@
+package io.phasetwo.service.model.jpa;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.phasetwo.service.model.DomainModel;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.util.DomainVerifier;
+import jakarta.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import lombok.extern.jbosslog.JBossLog;
+import org.hibernate.Session;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+/**
+ * Checks that the ownership records of verified domains still exist, and unverifies the domains
+ * whose record was removed. Domains are walked in batches ordered by id, so that each batch is a
+ * cheap indexed read, and the lookups of a batch run concurrently at no more than the given rate.
+ * A domain is only unverified when its record is definitely missing, not when the lookup fails.
+ */
+@JBossLog
+public class DomainReverificationTask implements ScheduledTask {
+
+  public static final String TASK_NAME = "DomainReverification";
+
+  private final int batchSize;
+  private final double lookupsPerSecond;
+
+  public DomainReverificationTask(int batchSize, double lookupsPerSecond) {
+    this.batchSize = batchSize;
+    this.lookupsPerSecond = lookupsPerSecond;
+  }
+
+  @Override
+  public void run(KeycloakSession session) {
+    KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+    RateLimiter limiter = RateLimiter.create(lookupsPerSecond);
+    int checked = 0;
+    int unverified = 0;
+    int failed = 0;
+    String lastId = "";
+    while (true) {
+      String after = lastId;
+      List<Object[]> batch =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              factory,
+              s ->
+                  getEntityManager(s)
+                      .createNamedQuery("getVerifiedDomainsAfterId", Object[].class)
+                      .setParameter("lastId", after)
+                      .setMaxResults(batchSize)
+                      .getResultList());
+      if (batch.isEmpty()) break;
+      lastId = (String) batch.get(batch.size() - 1)[0];
+
+      List<CompletableFuture<DomainVerifier.Result>> lookups = new ArrayList<>();
+      for (Object[] row : batch) {
+        limiter.acquire();
+        lookups.add(DomainVerifier.get().lookup((String) row[1], (String) row[2]));
+      }
+      List<Object[]> missing = new ArrayList<>();
+      for (int n = 0; n < batch.size(); n++) {
+        DomainVerifier.Result result = lookups.get(n).join();
+        if (result == DomainVerifier.Result.NOT_FOUND) missing.add(batch.get(n));
+        if (result == DomainVerifier.Result.ERROR) failed++;
+      }
+      if (!missing.isEmpty()) {
+        KeycloakModelUtils.runJobInTransaction(factory, s -> unverify(s, missing));
+        unverified += missing.size();
+      }
+      checked += batch.size();
+      log.infof(
+          "Re-verified %d domains, %d unverified, %d lookups failed",
+          checked, unverified, failed);
+      if (batch.size() < batchSize) break;
+    }
+  }
+
+  // through the models, so that the caches and the domain index are invalidated, with the updates
+  // sent to the database in one batch
+  private void unverify(KeycloakSession session, List<Object[]> domains) {
+    getEntityManager(session).unwrap(Session.class).setJdbcBatchSize(batchSize);
+    OrganizationProvider orgs = session.getProvider(OrganizationProvider.class);
+    for (Object[] row : domains) {
+      RealmModel realm = session.realms().getRealm((String) row[3]);
+      OrganizationModel org =
+          realm == null ? null : orgs.getOrganizationById(realm, (String) row[2]);
+      DomainModel domain = org == null ? null : org.getDomain((String) row[1]);
+      if (domain != null) {
+        log.infof("Ownership record of %s for %s is gone, unverifying", row[1], row[2]);
+        domain.setVerified(false);
+      }
+    }
+  }
+
+  private static EntityManager getEntityManager(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+}
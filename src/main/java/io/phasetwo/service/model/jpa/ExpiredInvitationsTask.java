@@ -0,0 +1,60 @@
+package io.phasetwo.service.model.jpa;
+
+import jakarta.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+/**
+ * Deletes expired invitations of all realms. Each batch is deleted in its own transaction, so
+ * that no long running delete holds locks on the invitation tables.
+ */
+@JBossLog
+public class ExpiredInvitationsTask implements ScheduledTask {
+
+  public static final String TASK_NAME = "ExpiredInvitations";
+
+  private final int batchSize;
+
+  public ExpiredInvitationsTask(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void run(KeycloakSession session) {
+    Date now = new Date(Time.currentTimeMillis());
+    int total = 0;
+    while (true) {
+      int removed =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              session.getKeycloakSessionFactory(), s -> removeBatch(s, now));
+      total += removed;
+      if (removed < batchSize) break;
+    }
+    if (total > 0) log.infof("Removed %d expired invitations", total);
+  }
+
+  // children first, as the bulk delete bypasses the cascades
+  private int removeBatch(KeycloakSession session, Date now) {
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    List<String> ids =
+        em.createNamedQuery("getExpiredInvitationIds", String.class)
+            .setParameter("now", now)
+            .setMaxResults(batchSize)
+            .getResultList();
+    if (ids.isEmpty()) return 0;
+    String[] deletes = {
+      "deleteInvitationRolesByIds", "deleteInvitationTeamsByIds", "deleteInvitationsByIds"
+    };
+    for (String name : deletes) {
+      em.createNamedQuery(name).setParameter("ids", ids).executeUpdate();
+    }
+    log.debugf("Removed a batch of %d expired invitations", ids.size());
+    return ids.size();
+  }
+}
@@ -46,6 +46,11 @@ public class InvitationAdapter implements InvitationModel, JpaModel<InvitationEn
         .getOrganizationById(realm, invitation.getOrganization().getId());
   }
 
+  @Override
+  public String getOrganizationId() {
+    return invitation.getOrganization().getId();
+  }
+
   @Override
   public String getEmail() {
     return invitation.getEmail();
@@ -54,6 +59,7 @@ public class InvitationAdapter implements InvitationModel, JpaModel<InvitationEn
   @Override
   public void setEmail(String email) {
     invitation.setEmail(email);
+    InvitationEmailIndex.get().invitationAdded(session, realm, email);
   }
 
   @Override
@@ -75,6 +81,11 @@ public class InvitationAdapter implements InvitationModel, JpaModel<InvitationEn
     }
   }
 
+  @Override
+  public String getInviterId() {
+    return invitation.getInviterId();
+  }
+
   @Override
   public void setInviter(UserModel inviter) {
     invitation.setInviterId(inviter.getId());
@@ -90,6 +101,16 @@ public class InvitationAdapter implements InvitationModel, JpaModel<InvitationEn
     invitation.setCreatedAt(date);
   }
 
+  @Override
+  public Date getExpiresAt() {
+    return invitation.getExpiresAt();
+  }
+
+  @Override
+  public void setExpiresAt(Date date) {
+    invitation.setExpiresAt(date);
+  }
+
   @Override
   public Set<String> getRoles() {
     return invitation.getRoles();
@@ -0,0 +1,196 @@
+package io.phasetwo.service.model.jpa;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import jakarta.persistence.EntityManager;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Node-local Bloom filter of the invited emails of each realm, so that the invitation checks run on
+ * every login can tell that a user has no invitation without asking the database. The filter has
+ * no false negatives: an email that isn't in it has no invitation. Emails stay in it after their
+ * invitations are revoked, which only costs a query, until the filter is rebuilt. The filter of a
+ * realm is loaded on first use, and invitations added on any node are added to it on every node.
+ */
+@JBossLog
+public class InvitationEmailIndex {
+
+  public static final String EVENTS = "INVITATION_EMAIL_INDEX_EVENTS";
+
+  private static final int MIN_EXPECTED_EMAILS = 1000;
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  private static final InvitationEmailIndex INSTANCE = new InvitationEmailIndex();
+
+  public static InvitationEmailIndex get() {
+    return INSTANCE;
+  }
+
+  private final ConcurrentMap<String, Filter> realms = new ConcurrentHashMap<>();
+  private final AtomicLong revision = new AtomicLong();
+
+  /** Whether the email may have an invitation in the realm. False means that it has none. */
+  public boolean mightBeInvited(KeycloakSession session, RealmModel realm, String email) {
+    if (email == null) return false;
+    Filter filter = realms.get(realm.getId());
+    if (filter == null) filter = load(session, realm);
+    return filter.emails.mightContain(email.toLowerCase());
+  }
+
+  /** Adds the email of an invitation on all nodes once the current transaction commits. */
+  public void invitationAdded(KeycloakSession session, RealmModel realm, String email) {
+    String realmId = realm.getId();
+    String lower = email.toLowerCase();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                add(realmId, lower);
+                notify(session, new EmailAddedEvent(realmId, lower));
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  /** Drops the filter of the realm on all nodes once the current transaction commits. */
+  public void invalidate(KeycloakSession session, RealmModel realm) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                invalidate(realmId);
+                notify(session, new EmailAddedEvent(realmId, null));
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  public synchronized void invalidate(String realmId) {
+    revision.incrementAndGet();
+    realms.remove(realmId);
+  }
+
+  public void registerListener(KeycloakSession session) {
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.registerListener(EVENTS, this::eventReceived);
+    }
+  }
+
+  private void eventReceived(ClusterEvent event) {
+    if (!(event instanceof EmailAddedEvent)) return;
+    EmailAddedEvent added = (EmailAddedEvent) event;
+    if (added.getEmail() == null) {
+      log.tracef("Dropping invitation email filter of %s", added.getRealmId());
+      invalidate(added.getRealmId());
+    } else {
+      add(added.getRealmId(), added.getEmail());
+    }
+  }
+
+  private static void notify(KeycloakSession session, EmailAddedEvent event) {
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.notify(EVENTS, event, true, ClusterProvider.DCNotify.ALL_DCS);
+    }
+  }
+
+  // a filter filled past its expected size answers true too often, so it is dropped and sized
+  // again on the next load
+  private synchronized void add(String realmId, String email) {
+    revision.incrementAndGet();
+    Filter filter = realms.get(realmId);
+    if (filter == null) return;
+    if (filter.emails.put(email) && ++filter.size > filter.expected) {
+      log.debugf("Invitation email filter of %s is full", realmId);
+      realms.remove(realmId);
+    }
+  }
+
+  // only installed if nothing was added while loading, so that a load racing with a commit can't
+  // leave out an invited email
+  private Filter load(KeycloakSession session, RealmModel realm) {
+    long startRevision = revision.get();
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    List<String> emails =
+        em.createNamedQuery("getInvitationEmailsByRealmId", String.class)
+            .setParameter("realmId", realm.getId())
+            .getResultList();
+    Filter filter = new Filter(Math.max(MIN_EXPECTED_EMAILS, emails.size() * 2));
+    emails.forEach(e -> filter.emails.put(e.toLowerCase()));
+    filter.size = emails.size();
+    synchronized (this) {
+      if (revision.get() == startRevision) {
+        realms.put(realm.getId(), filter);
+        log.debugf(
+            "Loaded invitation email filter of %s with %d emails", realm.getName(), filter.size);
+      }
+    }
+    return filter;
+  }
+
+  private static class Filter {
+    private final BloomFilter<CharSequence> emails;
+    private final int expected;
+    // only changed while holding the index lock
+    private int size;
+
+    Filter(int expected) {
+      this.expected = expected;
+      this.emails =
+          BloomFilter.create(
+              Funnels.stringFunnel(StandardCharsets.UTF_8), expected, FALSE_POSITIVE_PROBABILITY);
+    }
+  }
+
+  /**
+   * Sent to the other nodes when an invitation was added in a realm, or with no email when the
+   * filter of the realm should be dropped.
+   */
+  public static class EmailAddedEvent implements ClusterEvent, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+    private final String email;
+
+    public EmailAddedEvent(String realmId, String email) {
+      this.realmId = realmId;
+      this.email = email;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    public String getEmail() {
+      return email;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("InvitationEmailIndex.EmailAddedEvent [ realmId=%s ]", realmId);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package io.phasetwo.service.model.jpa;
 
+import static io.phasetwo.service.Orgs.ORG_OWNER_CONFIG_KEY;
 import static org.keycloak.models.jpa.PaginationUtils.paginateQuery;
 import static org.keycloak.utils.StreamsUtil.closing;
 
@@ -15,6 +16,7 @@ import io.phasetwo.service.model.jpa.entity.OrganizationAttributeEntity;
 import io.phasetwo.service.model.jpa.entity.OrganizationEntity;
 import io.phasetwo.service.model.jpa.entity.OrganizationMemberEntity;
 import io.phasetwo.service.resource.OrganizationAdminAuth;
+import io.phasetwo.service.util.OrganizationDataVersion;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.CriteriaBuilder;
@@ -23,17 +25,25 @@ import jakarta.persistence.criteria.Join;
 import jakarta.persistence.criteria.JoinType;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.common.util.Time;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
+@JBossLog
 public class JpaOrganizationProvider implements OrganizationProvider {
 
   protected final KeycloakSession session;
@@ -113,13 +123,60 @@ public class JpaOrganizationProvider implements OrganizationProvider {
   }
 
   @Override
-  @SuppressWarnings("unchecked")
+  public Map<OrganizationModel, List<String>> getUserOrganizationRoles(
+      RealmModel realm, UserModel user) {
+    // one row per (membership, organization role), the mapping id is only set for held roles
+    TypedQuery<Object[]> query =
+        em.createNamedQuery("getOrganizationRolesByUserId", Object[].class);
+    query.setParameter("id", user.getId());
+    query.setParameter("realmId", realm.getId());
+    Map<OrganizationEntity, List<String>> roles = new LinkedHashMap<>();
+    closing(query.getResultStream())
+        .forEach(
+            row -> {
+              List<String> names =
+                  roles.computeIfAbsent((OrganizationEntity) row[0], o -> new ArrayList<>());
+              if (row[2] != null) names.add((String) row[1]);
+            });
+    Map<OrganizationModel, List<String>> result = new LinkedHashMap<>();
+    roles.forEach((o, names) -> result.put(new OrganizationAdapter(session, realm, em, o), names));
+    return result;
+  }
+
+  @Override
   public Stream<OrganizationModel> searchForOrganizationStream(
       RealmModel realm,
       Map<String, String> attributes,
       Integer firstResult,
       Integer maxResults,
       Optional<UserModel> member) {
+    TypedQuery<OrganizationEntity> query = searchQuery(realm, attributes, member, null, null);
+    return closing(paginateQuery(query, firstResult, maxResults).getResultStream())
+        .map(orgEntity -> getOrganizationById(realm, orgEntity.getId()))
+        .filter(Objects::nonNull);
+  }
+
+  @Override
+  public Stream<OrganizationModel> searchForOrganizationStreamAfter(
+      RealmModel realm,
+      Map<String, String> attributes,
+      String afterName,
+      String afterId,
+      Integer maxResults,
+      Optional<UserModel> member) {
+    TypedQuery<OrganizationEntity> query =
+        searchQuery(realm, attributes, member, afterName, afterId);
+    return closing(paginateQuery(query, null, maxResults).getResultStream())
+        .map(orgEntity -> getOrganizationById(realm, orgEntity.getId()))
+        .filter(Objects::nonNull);
+  }
+
+  private TypedQuery<OrganizationEntity> searchQuery(
+      RealmModel realm,
+      Map<String, String> attributes,
+      Optional<UserModel> member,
+      String afterName,
+      String afterId) {
     if (attributes == null) {
       attributes = ImmutableMap.of();
     }
@@ -127,26 +184,39 @@ public class JpaOrganizationProvider implements OrganizationProvider {
     CriteriaQuery<OrganizationEntity> queryBuilder = builder.createQuery(OrganizationEntity.class);
     Root<OrganizationEntity> root = queryBuilder.from(OrganizationEntity.class);
 
-    List<Predicate> predicates = attributePredicates(attributes, root);
+    List<Predicate> predicates = attributePredicates(attributes, queryBuilder, root);
 
     predicates.add(builder.equal(root.get("realmId"), realm.getId()));
 
     member.ifPresent(u -> predicates.add(memberPredicate(u, root)));
 
-    queryBuilder.where(predicates.toArray(new Predicate[0])).orderBy(builder.asc(root.get("name")));
+    // seek past the last (name, id) seen instead of skipping an offset
+    if (afterName != null && afterId != null) {
+      predicates.add(
+          builder.or(
+              builder.greaterThan(root.get("name"), afterName),
+              builder.and(
+                  builder.equal(root.get("name"), afterName),
+                  builder.greaterThan(root.get("id"), afterId))));
+    }
 
-    TypedQuery<OrganizationEntity> query = em.createQuery(queryBuilder);
+    queryBuilder
+        .where(predicates.toArray(new Predicate[0]))
+        .orderBy(builder.asc(root.get("name")), builder.asc(root.get("id")));
 
-    return closing(paginateQuery(query, firstResult, maxResults).getResultStream())
-        .map(orgEntity -> getOrganizationById(realm, orgEntity.getId()))
-        .filter(Objects::nonNull);
+    return em.createQuery(queryBuilder);
   }
 
   @Override
   public Long getOrganizationsCount(RealmModel realm, String search) {
-    TypedQuery<Long> query = em.createNamedQuery("countOrganizationsByRealmIdAndName", Long.class);
+    // rows that aren't backfilled yet are matched on the original column
+    String queryName =
+        SearchColumnsBackfillTask.isComplete(em)
+            ? "countOrganizationsByRealmIdAndName"
+            : "countOrganizationsByRealmIdAndNameWithFallback";
+    TypedQuery<Long> query = em.createNamedQuery(queryName, Long.class);
     query.setParameter("realmId", realm.getId());
-    search = createSearchString(search);
+    search = createSearchString(search == null ? null : search.toLowerCase(Locale.ROOT));
     query.setParameter("search", search);
     return query.getSingleResult();
   }
@@ -156,6 +226,8 @@ public class JpaOrganizationProvider implements OrganizationProvider {
     OrganizationModel org = getOrganizationById(realm, id);
     OrganizationEntity e = em.find(OrganizationEntity.class, id);
     em.remove(e);
+    OrganizationDataVersion.bump(session, realm);
+    OrganizationDomainIndex.get().invalidate(session, realm);
     session.getKeycloakSessionFactory().publish(orgRemovedEvent(realm, org));
     em.flush();
     return true;
@@ -163,19 +235,121 @@ public class JpaOrganizationProvider implements OrganizationProvider {
 
   @Override
   public void removeOrganizations(RealmModel realm) {
-    searchForOrganizationStream(realm, null, null, null, Optional.empty())
-        .forEach(o -> removeOrganization(realm, o.getId()));
+    removeDefaultAdminUsers(realm);
+    removeIdentityProviderOwnership(realm);
+
+    // children first, as the bulk deletes bypass the cascades
+    String[] nativeDeletes = {"deleteInvitationRolesByRealm", "deleteInvitationTeamsByRealm"};
+    for (String name : nativeDeletes) {
+      em.createNamedQuery(name).setParameter("realmId", realm.getId()).executeUpdate();
+    }
+    String[] deletes = {
+      "deleteInvitationEmailsByRealm",
+      "deleteInvitationsByRealm",
+      "deleteTeamMembersByRealm",
+      "deleteTeamAttributesByRealm",
+      "deleteTeamsByRealm",
+      "deleteMappingsByRealm",
+      "deleteOrganizationRolesByRealm",
+      "deleteOrganizationMembersByRealm",
+      "deleteOrganizationAttributesByRealm",
+      "deleteDomainsByRealm",
+      "removeAllOrganizations"
+    };
+    for (String name : deletes) {
+      int n = em.createNamedQuery(name).setParameter("realmId", realm.getId()).executeUpdate();
+      log.debugf("%s removed %d rows in %s", name, n, realm.getName());
+    }
+    // the persistence context may still hold removed entities
+    em.flush();
+    em.clear();
+    OrganizationDataVersion.bump(session, realm);
+    OrganizationDomainIndex.get().invalidate(session, realm);
+    InvitationEmailIndex.get().invalidate(session, realm);
+    OrganizationNameIndex.get().invalidate(session, realm);
+    OrganizationIdentityProviderIndex.get().invalidate(session, realm);
+  }
+
+  /** Removes the default org-admin users of all organizations in the realm. */
+  private void removeDefaultAdminUsers(RealmModel realm) {
+    TypedQuery<String> query =
+        em.createNamedQuery("getDefaultAdminUserIdsByRealmId", String.class);
+    query.setParameter("realmId", realm.getId());
+    query.getResultList().stream()
+        .map(id -> session.users().getUserById(realm, id))
+        .filter(Objects::nonNull)
+        .forEach(u -> session.users().removeUser(realm, u));
+  }
+
+  /** Removes the organization owner from every identity provider of the realm. */
+  private void removeIdentityProviderOwnership(RealmModel realm) {
+    try {
+      realm
+          .getIdentityProvidersStream()
+          .filter(i -> i.getConfig() != null && i.getConfig().containsKey(ORG_OWNER_CONFIG_KEY))
+          .collect(Collectors.toList())
+          .forEach(
+              i -> {
+                i.getConfig().remove(ORG_OWNER_CONFIG_KEY);
+                realm.updateIdentityProvider(i);
+              });
+    } catch (Exception e) {
+      log.warnf(
+          "Couldn't remove identity provider ownership in %s. Likely because this follows a realmRemoved event. %s",
+          realm.getName(), e.getMessage());
+    }
   }
 
   @Override
   public Stream<InvitationModel> getUserInvitationsStream(RealmModel realm, UserModel user) {
+    if (!InvitationEmailIndex.get().mightBeInvited(session, realm, user.getEmail())) {
+      return Stream.empty();
+    }
     TypedQuery<InvitationEntity> query =
         em.createNamedQuery("getInvitationsByRealmAndEmail", InvitationEntity.class);
     query.setParameter("realmId", realm.getId());
-    query.setParameter("search", user.getEmail());
+    // emails are stored lowercased, so that the email index can be used
+    query.setParameter("email", user.getEmail().toLowerCase());
+    query.setParameter("now", new Date(Time.currentTimeMillis()));
     return query.getResultStream().map(i -> new InvitationAdapter(session, realm, em, i));
   }
 
+  @Override
+  public boolean hasUserInvitations(RealmModel realm, UserModel user) {
+    if (!InvitationEmailIndex.get().mightBeInvited(session, realm, user.getEmail())) return false;
+    TypedQuery<String> query = em.createNamedQuery("getInvitationIdsByRealmAndEmail", String.class);
+    query.setParameter("realmId", realm.getId());
+    query.setParameter("email", user.getEmail().toLowerCase());
+    query.setParameter("now", new Date(Time.currentTimeMillis()));
+    query.setMaxResults(1);
+    return !query.getResultList().isEmpty();
+  }
+
+  @Override
+  public void preRemove(RealmModel realm, UserModel user) {
+    em.createNamedQuery("deleteMappingsByUser")
+        .setParameter("userId", user.getId())
+        .executeUpdate();
+    int removed =
+        em.createNamedQuery("deleteOrganizationMembershipsByUserId")
+            .setParameter("id", user.getId())
+            .executeUpdate();
+    if (user.getEmail() != null) {
+      String[] deletes = {
+        "deleteInvitationRolesByRealmAndEmail",
+        "deleteInvitationTeamsByRealmAndEmail",
+        "deleteInvitationsByRealmAndEmail"
+      };
+      for (String name : deletes) {
+        em.createNamedQuery(name)
+            .setParameter("realmId", realm.getId())
+            .setParameter("email", user.getEmail().toLowerCase())
+            .executeUpdate();
+      }
+    }
+    if (removed > 0) OrganizationDataVersion.bump(session, realm);
+  }
+
   @Override
   public void close() {}
 
@@ -220,11 +394,14 @@ public class JpaOrganizationProvider implements OrganizationProvider {
   }
 
   private List<Predicate> attributePredicates(
-      Map<String, String> attributes, Root<OrganizationEntity> root) {
+      Map<String, String> attributes,
+      CriteriaQuery<OrganizationEntity> queryBuilder,
+      Root<OrganizationEntity> root) {
     CriteriaBuilder builder = em.getCriteriaBuilder();
 
     List<Predicate> predicates = new ArrayList<>();
-    List<Predicate> attributePredicates = new ArrayList<>();
+    // rows that aren't backfilled yet are matched on the original columns
+    boolean filled = SearchColumnsBackfillTask.isComplete(em);
 
     for (Map.Entry<String, String> entry : attributes.entrySet()) {
       String key = entry.getKey();
@@ -236,28 +413,50 @@ public class JpaOrganizationProvider implements OrganizationProvider {
 
       switch (key) {
         case "name":
-          predicates.add(
+          String search = "%" + value.toLowerCase(Locale.ROOT) + "%";
+          Predicate name =
               builder.or(
-                  builder.like(builder.lower(root.get("name")), "%" + value.toLowerCase() + "%"),
-                  builder.like(
-                      builder.lower(root.get("displayName")), "%" + value.toLowerCase() + "%")));
+                  builder.like(root.get("nameLc"), search),
+                  builder.like(root.get("displayNameLc"), search));
+          if (!filled) {
+            name =
+                builder.or(
+                    name,
+                    builder.and(
+                        builder.isNull(root.get("nameLc")),
+                        builder.or(
+                            builder.like(builder.lower(root.get("name")), search),
+                            builder.like(builder.lower(root.get("displayName")), search))));
+          }
+          predicates.add(name);
           break;
         default:
-          Join<OrganizationEntity, OrganizationAttributeEntity> attributesJoin =
-              root.join("attributes", JoinType.LEFT);
-
-          attributePredicates.add(
-              builder.and(
-                  builder.equal(builder.lower(attributesJoin.get("name")), key.toLowerCase()),
-                  builder.equal(builder.lower(attributesJoin.get("value")), value.toLowerCase())));
+          // each term gets its own EXISTS, so that several terms can match different attribute
+          // rows. the name is compared as is so the (NAME, VALUE_LC) index can be used
+          Subquery<String> attributeQuery = queryBuilder.subquery(String.class);
+          Root<OrganizationAttributeEntity> attribute =
+              attributeQuery.from(OrganizationAttributeEntity.class);
+          String lowerValue = value.toLowerCase(Locale.ROOT);
+          Predicate valueMatch = builder.equal(attribute.get("valueLc"), lowerValue);
+          if (!filled) {
+            valueMatch =
+                builder.or(
+                    valueMatch,
+                    builder.and(
+                        builder.isNull(attribute.get("valueLc")),
+                        builder.equal(builder.lower(attribute.get("value")), lowerValue)));
+          }
+          attributeQuery
+              .select(attribute.get("id"))
+              .where(
+                  builder.equal(attribute.get("organization"), root),
+                  builder.equal(attribute.get("name"), key),
+                  valueMatch);
+          predicates.add(builder.exists(attributeQuery));
           break;
       }
     }
 
-    if (!attributePredicates.isEmpty()) {
-      predicates.add(builder.and(attributePredicates.toArray(new Predicate[0])));
-    }
-
     return predicates;
   }
 
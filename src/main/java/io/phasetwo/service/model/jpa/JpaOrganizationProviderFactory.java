@@ -3,12 +3,21 @@ package io.phasetwo.service.model.jpa;
 import com.google.auto.service.AutoService;
 import io.phasetwo.service.model.OrganizationProvider;
 import io.phasetwo.service.model.OrganizationProviderFactory;
+import io.phasetwo.service.util.DomainVerifier;
+import io.phasetwo.service.util.InvitationEmailQueue;
 import jakarta.persistence.EntityManager;
+import java.time.Duration;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config.Scope;
 import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
+import org.keycloak.timer.ScheduledTask;
+import org.keycloak.timer.TimerProvider;
 
 @JBossLog
 @AutoService(OrganizationProviderFactory.class)
@@ -16,6 +25,19 @@ public class JpaOrganizationProviderFactory implements OrganizationProviderFacto
 
   public static final String PROVIDER_ID = "jpa-organization";
 
+  // seconds until the backfill of the search columns starts, and between tries until it is done
+  private static final long BACKFILL_INTERVAL = 60L;
+
+  private long expiredInvitationsInterval;
+  private int expiredInvitationsBatchSize;
+  private int invitationEmailWorkers;
+  private int domainVerificationParallelism;
+  private long domainVerificationTimeout;
+  private String domainVerificationResolver;
+  private long domainReverificationInterval;
+  private int domainReverificationBatchSize;
+  private int domainReverificationRate;
+
   @Override
   public String getId() {
     return PROVIDER_ID;
@@ -28,11 +50,74 @@ public class JpaOrganizationProviderFactory implements OrganizationProviderFacto
   }
 
   @Override
-  public void init(Scope config) {}
+  public void init(Scope config) {
+    expiredInvitationsInterval = config.getLong("expiredInvitationsInterval", 900L);
+    expiredInvitationsBatchSize = config.getInt("expiredInvitationsBatchSize", 500);
+    invitationEmailWorkers = config.getInt("invitationEmailWorkers", 2);
+    domainVerificationParallelism = config.getInt("domainVerificationParallelism", 16);
+    domainVerificationTimeout = config.getLong("domainVerificationTimeout", 5L);
+    domainVerificationResolver = config.get("domainVerificationResolver");
+    domainReverificationInterval = config.getLong("domainReverificationInterval", 86400L);
+    domainReverificationBatchSize = config.getInt("domainReverificationBatchSize", 500);
+    domainReverificationRate = config.getInt("domainReverificationRate", 10);
+  }
 
   @Override
-  public void postInit(KeycloakSessionFactory factory) {}
+  public void postInit(KeycloakSessionFactory factory) {
+    factory.register(
+        (ProviderEvent event) -> {
+          if (event instanceof PostMigrationEvent) {
+            KeycloakModelUtils.runJobInTransaction(
+                factory, OrganizationDomainIndex.get()::registerListener);
+            KeycloakModelUtils.runJobInTransaction(
+                factory, InvitationEmailIndex.get()::registerListener);
+            schedule(
+                factory,
+                new SearchColumnsBackfillTask(),
+                SearchColumnsBackfillTask.TASK_NAME,
+                BACKFILL_INTERVAL);
+            if (expiredInvitationsInterval > 0) {
+              schedule(
+                  factory,
+                  new ExpiredInvitationsTask(expiredInvitationsBatchSize),
+                  ExpiredInvitationsTask.TASK_NAME,
+                  expiredInvitationsInterval);
+            }
+            InvitationEmailQueue.get().start(factory, invitationEmailWorkers);
+            DomainVerifier.get()
+                .start(
+                    factory,
+                    domainVerificationParallelism,
+                    Duration.ofSeconds(domainVerificationTimeout),
+                    domainVerificationResolver);
+            if (domainReverificationInterval > 0) {
+              schedule(
+                  factory,
+                  new DomainReverificationTask(
+                      domainReverificationBatchSize, domainReverificationRate),
+                  DomainReverificationTask.TASK_NAME,
+                  domainReverificationInterval);
+            }
+          }
+        });
+  }
+
+  /** Runs the task on one node of the cluster at each interval (in seconds). */
+  private void schedule(
+      KeycloakSessionFactory factory, ScheduledTask task, String name, long intervalSeconds) {
+    long interval = intervalSeconds * 1000L;
+    KeycloakModelUtils.runJobInTransaction(
+        factory,
+        session -> {
+          TimerProvider timer = session.getProvider(TimerProvider.class);
+          timer.schedule(
+              new ClusterAwareScheduledTaskRunner(factory, task, interval), interval, name);
+        });
+  }
 
   @Override
-  public void close() {}
+  public void close() {
+    InvitationEmailQueue.get().stop();
+    DomainVerifier.get().stop();
+  }
 }
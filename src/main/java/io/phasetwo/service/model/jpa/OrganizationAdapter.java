@@ -1,6 +1,7 @@
 package io.phasetwo.service.model.jpa;
 
-import static io.phasetwo.service.Orgs.*;
+import static org.keycloak.models.jpa.PaginationUtils.paginateQuery;
+import static org.keycloak.utils.StreamsUtil.closing;
 
 import com.google.common.base.Strings;
 import io.phasetwo.service.model.DomainModel;
@@ -13,13 +14,20 @@ import io.phasetwo.service.model.jpa.entity.OrganizationAttributeEntity;
 import io.phasetwo.service.model.jpa.entity.OrganizationEntity;
 import io.phasetwo.service.model.jpa.entity.OrganizationMemberEntity;
 import io.phasetwo.service.model.jpa.entity.OrganizationRoleEntity;
+import io.phasetwo.service.util.OrganizationDataVersion;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.TypedQuery;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
 import org.keycloak.common.util.MultivaluedHashMap;
 import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
@@ -30,6 +38,8 @@ import org.keycloak.models.utils.KeycloakModelUtils;
 
 public class OrganizationAdapter implements OrganizationModel, JpaModel<OrganizationEntity> {
 
+  private static final int MEMBERSHIP_BATCH_SIZE = 500;
+
   protected final KeycloakSession session;
   protected final OrganizationEntity org;
   protected final EntityManager em;
@@ -60,7 +70,10 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
 
   @Override
   public void setName(String name) {
+    if (Objects.equals(name, org.getName())) return;
+    OrganizationDataVersion.bump(session, realm);
     org.setName(name);
+    session.getKeycloakSessionFactory().publish(orgRenamedEvent());
   }
 
   @Override
@@ -70,7 +83,29 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
 
   @Override
   public void setDisplayName(String displayName) {
+    if (Objects.equals(displayName, org.getDisplayName())) return;
     org.setDisplayName(displayName);
+    session.getKeycloakSessionFactory().publish(orgRenamedEvent());
+  }
+
+  private OrganizationModel.OrganizationRenamedEvent orgRenamedEvent() {
+    OrganizationModel model = this;
+    return new OrganizationModel.OrganizationRenamedEvent() {
+      @Override
+      public OrganizationModel getOrganization() {
+        return model;
+      }
+
+      @Override
+      public KeycloakSession getKeycloakSession() {
+        return session;
+      }
+
+      @Override
+      public RealmModel getRealm() {
+        return realm;
+      }
+    };
   }
 
   @Override
@@ -82,8 +117,9 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
   public void setDomains(Set<String> domains) {
     //  org.setDomains(domains);
     Set<String> lower = domains.stream().map(d -> d.toLowerCase()).collect(Collectors.toSet());
-    org.getDomains().removeIf(e -> !lower.contains(e.getDomain()));
+    boolean changed = org.getDomains().removeIf(e -> !lower.contains(e.getDomain()));
     lower.removeIf(d -> org.getDomains().stream().filter(e -> d.equals(e.getDomain())).count() > 0);
+    if (changed || !lower.isEmpty()) OrganizationDomainIndex.get().invalidate(session, realm);
     lower.forEach(
         d -> {
           DomainEntity de = new DomainEntity();
@@ -140,16 +176,19 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
 
   @Override
   public void removeAttribute(String name) {
+    OrganizationDataVersion.bump(session, realm);
     org.getAttributes().removeIf(attribute -> attribute.getName().equals(name));
   }
 
   @Override
   public void removeAttributes() {
+    OrganizationDataVersion.bump(session, realm);
     org.getAttributes().clear();
   }
 
   @Override
   public void setAttribute(String name, List<String> values) {
+    OrganizationDataVersion.bump(session, realm);
     removeAttribute(name);
     for (String value : values) {
       OrganizationAttributeEntity a = new OrganizationAttributeEntity();
@@ -165,18 +204,18 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
   @Override
   public Stream<UserModel> searchForMembersStream(
       String search, Integer firstResult, Integer maxResults) {
-    // TODO this could be optimized for large member lists with a query
-    return getMembersStream()
-        .filter(
-            (m) -> {
-              if (Strings.isNullOrEmpty(search)) return true;
-              return (m.getEmail() != null && m.getEmail().toLowerCase().contains(search))
-                  || (m.getUsername() != null && m.getUsername().toLowerCase().contains(search))
-                  || (m.getFirstName() != null && m.getFirstName().toLowerCase().contains(search))
-                  || (m.getLastName() != null && m.getLastName().toLowerCase().contains(search));
-            })
-        .skip(firstResult)
-        .limit(maxResults);
+    TypedQuery<String> query;
+    if (Strings.isNullOrEmpty(search)) {
+      query = em.createNamedQuery("getOrganizationMemberIds", String.class);
+    } else {
+      query = em.createNamedQuery("searchForOrganizationMemberIds", String.class);
+      query.setParameter(
+          "search", JpaOrganizationProvider.createSearchString(search.trim().toLowerCase()));
+    }
+    query.setParameter("organization", org);
+    return closing(paginateQuery(query, firstResult, maxResults).getResultStream())
+        .map(uid -> session.users().getUserById(realm, uid))
+        .filter(Objects::nonNull);
   }
 
   @Override
@@ -188,58 +227,158 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
 
   @Override
   public Stream<UserModel> getMembersStream() {
-    return org.getMembers().stream()
-        .map(m -> m.getUserId())
+    TypedQuery<String> query = em.createNamedQuery("getOrganizationMemberIds", String.class);
+    query.setParameter("organization", org);
+    return closing(query.getResultStream())
         .map(uid -> session.users().getUserById(realm, uid))
-        .filter(u -> u != null && u.getServiceAccountClientLink() == null);
+        .filter(Objects::nonNull);
   }
 
   @Override
   public boolean hasMembership(UserModel user) {
-    return org.getMembers().stream().anyMatch(m -> m.getUserId().equals(user.getId()));
+    TypedQuery<OrganizationMemberEntity> query =
+        em.createNamedQuery("getOrganizationMemberByUserId", OrganizationMemberEntity.class);
+    query.setParameter("organization", org);
+    query.setParameter("id", user.getId());
+    query.setMaxResults(1);
+    return !query.getResultList().isEmpty();
   }
 
   @Override
   public void grantMembership(UserModel user) {
     if (hasMembership(user)) return;
+    OrganizationDataVersion.bump(session, realm);
     OrganizationMemberEntity m = new OrganizationMemberEntity();
     m.setId(KeycloakModelUtils.generateId());
     m.setUserId(user.getId());
     m.setOrganization(org);
     em.persist(m);
-    org.getMembers().add(m);
+  }
+
+  @Override
+  public Set<String> grantMemberships(Set<String> userIds) {
+    Set<String> added = new HashSet<>(userIds);
+    if (added.isEmpty()) return added;
+    TypedQuery<String> query = em.createNamedQuery("getOrganizationMemberUserIds", String.class);
+    query.setParameter("organization", org);
+    query.setParameter("ids", userIds);
+    added.removeAll(query.getResultList());
+    if (added.isEmpty()) return added;
+    OrganizationDataVersion.bump(session, realm);
+    em.unwrap(Session.class).setJdbcBatchSize(Math.min(added.size(), MEMBERSHIP_BATCH_SIZE));
+    for (String userId : added) {
+      OrganizationMemberEntity m = new OrganizationMemberEntity();
+      m.setId(KeycloakModelUtils.generateId());
+      m.setUserId(userId);
+      m.setOrganization(org);
+      em.persist(m);
+    }
+    em.flush();
+    return added;
   }
 
   @Override
   public void revokeMembership(UserModel user) {
-    if (!hasMembership(user)) return;
-    org.getMembers().removeIf(m -> m.getUserId().equals(user.getId()));
-    getRolesStream().forEach(r -> r.revokeRole(user));
+    int removed =
+        em.createNamedQuery("deleteOrganizationMemberByUserId")
+            .setParameter("organization", org)
+            .setParameter("id", user.getId())
+            .executeUpdate();
+    if (removed == 0) return;
+    OrganizationDataVersion.bump(session, realm);
+    em.createNamedQuery("deleteOrganizationMappingsByUser")
+        .setParameter("organization", org)
+        .setParameter("userId", user.getId())
+        .executeUpdate();
     if (user.getEmail() != null) revokeInvitations(user.getEmail());
   }
 
   @Override
   public Stream<InvitationModel> getInvitationsStream() {
-    /*
-          public List<InvitationEntity> getInvitationsByRealmAndEmail(String realmName, String email) {
-      TypedQuery<InvitationEntity> query =
-          em.createNamedQuery("getInvitationsByRealmAndEmail", InvitationEntity.class);
-      query.setParameter("realmId", realmName);
-      query.setParameter("search", email);
-      return query.getResultList();
-    }
-      */
     return org.getInvitations().stream().map(i -> new InvitationAdapter(session, realm, em, i));
   }
 
+  // the page of ids is fetched first, so that the roles can be fetched with the invitations
+  // without paging the joined rows
+  @Override
+  public Stream<InvitationModel> searchForInvitationsStream(
+      String search, Integer firstResult, Integer maxResults) {
+    TypedQuery<String> query;
+    if (Strings.isNullOrEmpty(search)) {
+      query = em.createNamedQuery("getInvitationIdsByOrganization", String.class);
+    } else {
+      query = em.createNamedQuery("searchForInvitationIdsByOrganization", String.class);
+      query.setParameter(
+          "search", JpaOrganizationProvider.createSearchString(search.trim().toLowerCase()));
+    }
+    query.setParameter("organization", org);
+    List<String> ids = paginateQuery(query, firstResult, maxResults).getResultList();
+    if (ids.isEmpty()) return Stream.empty();
+    Map<String, InvitationEntity> invitations =
+        em.createNamedQuery("getInvitationsWithRolesByIds", InvitationEntity.class)
+            .setParameter("ids", ids)
+            .getResultStream()
+            .collect(Collectors.toMap(InvitationEntity::getId, i -> i, (a, b) -> a));
+    return ids.stream()
+        .map(invitations::get)
+        .filter(Objects::nonNull)
+        .map(i -> new InvitationAdapter(session, realm, em, i));
+  }
+
+  @Override
+  public InvitationModel getInvitationById(String id) {
+    InvitationEntity inv = findInvitation("getInvitationByOrganization", "id", id);
+    return inv == null ? null : new InvitationAdapter(session, realm, em, inv);
+  }
+
+  @Override
+  public Stream<InvitationModel> getInvitationsByEmail(String email) {
+    InvitationEntity inv =
+        findInvitation("getInvitationByOrganizationAndEmail", "email", email.toLowerCase());
+    return inv == null ? Stream.empty() : Stream.of(new InvitationAdapter(session, realm, em, inv));
+  }
+
+  @Override
+  public Stream<InvitationModel> getInvitationsByEmails(Collection<String> emails) {
+    if (emails.isEmpty()) return Stream.empty();
+    TypedQuery<InvitationEntity> query =
+        em.createNamedQuery("getInvitationsByOrganizationAndEmails", InvitationEntity.class);
+    query.setParameter("organization", org);
+    query.setParameter("emails", emails.stream().map(String::toLowerCase).toList());
+    return closing(query.getResultStream()).map(i -> new InvitationAdapter(session, realm, em, i));
+  }
+
   @Override
   public void revokeInvitation(String id) {
-    org.getInvitations().removeIf(inv -> inv.getId().equals(id));
+    removeInvitation(findInvitation("getInvitationByOrganization", "id", id));
   }
 
   @Override
   public void revokeInvitations(String email) {
-    org.getInvitations().removeIf(inv -> inv.getEmail().equals(email.toLowerCase()));
+    removeInvitation(
+        findInvitation("getInvitationByOrganizationAndEmail", "email", email.toLowerCase()));
+  }
+
+  private InvitationEntity findInvitation(String queryName, String param, String value) {
+    TypedQuery<InvitationEntity> query = em.createNamedQuery(queryName, InvitationEntity.class);
+    query.setParameter("organization", org);
+    query.setParameter(param, value);
+    query.setMaxResults(1);
+    List<InvitationEntity> result = query.getResultList();
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  // the invitations of the organization are only loaded if something else already loaded them
+  private void removeInvitation(InvitationEntity inv) {
+    if (inv == null) return;
+    if (Hibernate.isInitialized(org.getInvitations())) {
+      org.getInvitations().remove(inv);
+    } else {
+      em.remove(inv);
+    }
+    // deletes are flushed after inserts, so an invitation for the same email can't be added
+    // in this transaction otherwise
+    em.flush();
   }
 
   @Override
@@ -251,6 +390,7 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
     inv.setInviterId(inviter.getId());
     em.persist(inv);
     org.getInvitations().add(inv);
+    InvitationEmailIndex.get().invitationAdded(session, realm, inv.getEmail());
     return new InvitationAdapter(session, realm, em, inv);
   }
 
@@ -259,8 +399,31 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
     return org.getRoles().stream().map(r -> new OrganizationRoleAdapter(session, realm, em, r));
   }
 
+  @Override
+  public OrganizationRoleModel getRoleById(String id) {
+    OrganizationRoleEntity r = em.find(OrganizationRoleEntity.class, id);
+    if (r == null || !org.equals(r.getOrganization())) return null;
+    return new OrganizationRoleAdapter(session, realm, em, r);
+  }
+
+  @Override
+  public Map<String, Set<String>> getMemberRoleNames(Collection<UserModel> members) {
+    Map<String, Set<String>> names = new HashMap<>();
+    if (members.isEmpty()) return names;
+    TypedQuery<Object[]> query =
+        em.createNamedQuery("getRoleNamesByOrganizationAndUserIds", Object[].class);
+    query.setParameter("organization", org);
+    query.setParameter("userIds", members.stream().map(UserModel::getId).toList());
+    closing(query.getResultStream())
+        .forEach(
+            row ->
+                names.computeIfAbsent((String) row[0], k -> new HashSet<>()).add((String) row[1]));
+    return names;
+  }
+
   @Override
   public void removeRole(String name) {
+    OrganizationDataVersion.bump(session, realm);
     org.getRoles().removeIf(r -> r.getName().equals(name));
   }
 
@@ -277,14 +440,7 @@ public class OrganizationAdapter implements OrganizationModel, JpaModel<Organiza
 
   @Override
   public Stream<IdentityProviderModel> getIdentityProvidersStream() {
-    return getRealm()
-        .getIdentityProvidersStream()
-        .filter(
-            i -> {
-              Map<String, String> config = i.getConfig();
-              return config != null
-                  && config.containsKey(ORG_OWNER_CONFIG_KEY)
-                  && getId().equals(config.get(ORG_OWNER_CONFIG_KEY));
-            });
+    return OrganizationIdentityProviderIndex.get()
+        .getIdentityProvidersStream(session, realm, getId());
   }
 }
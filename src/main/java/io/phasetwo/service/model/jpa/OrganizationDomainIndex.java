@@ -0,0 +1,207 @@
+package io.phasetwo.service.model.jpa;
+
+import static org.keycloak.utils.StreamsUtil.closing;
+
+import jakarta.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Node-local index of the organization domains of each realm, stored as a trie of reversed domain
+ * labels so that the owners of a domain and of all its parent domains are found in one walk. The
+ * index of a realm holds all of its domains, so a domain that isn't in it is known to have no
+ * owner without asking the database. It is loaded on first use and dropped on every node after a
+ * domain of the realm is changed.
+ */
+@JBossLog
+public class OrganizationDomainIndex {
+
+  public static final String INVALIDATION_EVENTS = "ORGANIZATION_DOMAIN_INDEX_EVENTS";
+
+  private static final OrganizationDomainIndex INSTANCE = new OrganizationDomainIndex();
+
+  public static OrganizationDomainIndex get() {
+    return INSTANCE;
+  }
+
+  private final ConcurrentMap<String, Node> realms = new ConcurrentHashMap<>();
+  private final AtomicLong revision = new AtomicLong();
+
+  /**
+   * Finds the organizations owning the domain or one of its parent domains. Owners of the domain
+   * itself come first, followed by the owners of its parents from the most to the least specific.
+   */
+  public List<Match> lookup(
+      KeycloakSession session, RealmModel realm, String domain, boolean verifiedOnly) {
+    Node root = realms.get(realm.getId());
+    if (root == null) root = load(session, realm);
+
+    String[] labels = domain.toLowerCase(Locale.ROOT).split("\\.");
+    List<Node> path = new ArrayList<>(labels.length);
+    Node node = root;
+    for (int i = labels.length - 1; i >= 0 && node != null; i--) {
+      node = node.children.get(labels[i]);
+      if (node != null) path.add(node);
+    }
+    if (path.isEmpty()) return Collections.emptyList();
+
+    List<Match> matches = new ArrayList<>();
+    boolean exact = path.size() == labels.length;
+    for (int i = path.size() - 1; i >= 0; i--) {
+      boolean self = exact && i == path.size() - 1;
+      for (Owner o : path.get(i).owners) {
+        if (!verifiedOnly || o.verified) matches.add(new Match(o.organizationId, self));
+      }
+    }
+    return matches;
+  }
+
+  /** Drops the index of the realm on all nodes once the current transaction commits. */
+  public void invalidate(KeycloakSession session, RealmModel realm) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                invalidate(realmId);
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null) {
+                  cluster.notify(
+                      INVALIDATION_EVENTS,
+                      new InvalidationEvent(realmId),
+                      true,
+                      ClusterProvider.DCNotify.ALL_DCS);
+                }
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  /** Gets a counter that changes whenever domains of any realm may have changed on this node. */
+  public long getRevision() {
+    return revision.get();
+  }
+
+  public synchronized void invalidate(String realmId) {
+    revision.incrementAndGet();
+    realms.remove(realmId);
+  }
+
+  public void registerListener(KeycloakSession session) {
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.registerListener(INVALIDATION_EVENTS, this::eventReceived);
+    }
+  }
+
+  private void eventReceived(ClusterEvent event) {
+    if (!(event instanceof InvalidationEvent)) return;
+    String realmId = ((InvalidationEvent) event).getRealmId();
+    log.tracef("Dropping organization domain index of %s", realmId);
+    invalidate(realmId);
+  }
+
+  // only installed if nothing was invalidated while loading, so a load racing with a commit can't
+  // leave a stale index behind
+  private Node load(KeycloakSession session, RealmModel realm) {
+    long startRevision = revision.get();
+    Node root = new Node();
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    closing(
+            em.createNamedQuery("getDomainOwnersByRealmId", Object[].class)
+                .setParameter("realmId", realm.getId())
+                .getResultStream())
+        .forEach(row -> root.add((String) row[0], new Owner((String) row[2], (Boolean) row[1])));
+    synchronized (this) {
+      if (revision.get() == startRevision) {
+        realms.put(realm.getId(), root);
+        log.debugf("Loaded organization domain index of %s", realm.getName());
+      }
+    }
+    return root;
+  }
+
+  private static class Node {
+    private final Map<String, Node> children = new HashMap<>();
+    private final List<Owner> owners = new ArrayList<>(1);
+
+    // only called while loading, before the index is published
+    void add(String domain, Owner owner) {
+      String[] labels = domain.toLowerCase(Locale.ROOT).split("\\.");
+      Node node = this;
+      for (int i = labels.length - 1; i >= 0; i--) {
+        node = node.children.computeIfAbsent(labels[i], k -> new Node());
+      }
+      node.owners.add(owner);
+    }
+  }
+
+  private static class Owner {
+    private final String organizationId;
+    private final boolean verified;
+
+    Owner(String organizationId, Boolean verified) {
+      this.organizationId = organizationId;
+      this.verified = Boolean.TRUE.equals(verified);
+    }
+  }
+
+  public static class Match {
+    private final String organizationId;
+    private final boolean exact;
+
+    Match(String organizationId, boolean exact) {
+      this.organizationId = organizationId;
+      this.exact = exact;
+    }
+
+    public String getOrganizationId() {
+      return organizationId;
+    }
+
+    /** Whether the organization owns the domain itself, rather than one of its parents. */
+    public boolean isExact() {
+      return exact;
+    }
+  }
+
+  /** Sent to the other nodes when domains of a realm changed. */
+  public static class InvalidationEvent implements ClusterEvent, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+
+    public InvalidationEvent(String realmId) {
+      this.realmId = realmId;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("OrganizationDomainIndex.InvalidationEvent [ realmId=%s ]", realmId);
+    }
+  }
+}
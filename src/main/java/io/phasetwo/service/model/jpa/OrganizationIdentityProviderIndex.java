@@ -0,0 +1,240 @@
+package io.phasetwo.service.model.jpa;
+
+import static io.phasetwo.service.Orgs.ORG_OWNER_CONFIG_KEY;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.cache.CacheRealmProvider;
+import org.keycloak.models.cache.infinispan.RealmCacheSession;
+
+/**
+ * Node-local index from organization id to the aliases of the identity providers it owns, so that
+ * the identity providers of an organization can be found without going through all of the realm's.
+ * The index of a realm is built on first use and kept up to date from the identity provider
+ * changes committed on this node. A change committed on another node drops the realm's index, so
+ * that it is built again on the next use. Identity providers can also be added without going
+ * through the organization, with the realm's own endpoints or a partial import, so the index is
+ * built again as well when the realm cache revision of the realm isn't the one it was built at.
+ */
+@JBossLog
+public class OrganizationIdentityProviderIndex {
+
+  public static final String INVALIDATION_EVENTS = "ORGANIZATION_IDP_INDEX_EVENTS";
+
+  private static final OrganizationIdentityProviderIndex INSTANCE =
+      new OrganizationIdentityProviderIndex();
+
+  public static OrganizationIdentityProviderIndex get() {
+    return INSTANCE;
+  }
+
+  private final ConcurrentMap<String, RealmIndex> realms = new ConcurrentHashMap<>();
+  private final AtomicLong revision = new AtomicLong();
+
+  /** Gets the identity providers owned by the organization, ordered by alias. */
+  public Stream<IdentityProviderModel> getIdentityProvidersStream(
+      KeycloakSession session, RealmModel realm, String orgId) {
+    Long realmRevision = getRealmRevision(session, realm);
+    RealmIndex index = realms.get(realm.getId());
+    if (index == null || !Objects.equals(index.realmRevision, realmRevision)) {
+      index = load(realm, realmRevision);
+    }
+    // the owner is checked again, in case the provider was changed outside of this node's events
+    return index.getAliases(orgId).stream()
+        .map(realm::getIdentityProviderByAlias)
+        .filter(Objects::nonNull)
+        .filter(idp -> orgId.equals(getOwner(idp)));
+  }
+
+  /** Indexes a created or updated identity provider once the current transaction commits. */
+  public void identityProviderChanged(
+      KeycloakSession session, RealmModel realm, IdentityProviderModel idp) {
+    String alias = idp.getAlias();
+    String owner = getOwner(idp);
+    onCommit(session, realm, index -> index.put(alias, owner));
+  }
+
+  /** Removes an identity provider from the index once the current transaction commits. */
+  public void identityProviderRemoved(KeycloakSession session, RealmModel realm, String alias) {
+    onCommit(session, realm, index -> index.put(alias, null));
+  }
+
+  /** Gets a counter that changes whenever identity providers of any realm may have changed here. */
+  public long getRevision() {
+    return revision.get();
+  }
+
+  /** Drops the index of the realm on all nodes once the current transaction commits. */
+  public void invalidate(KeycloakSession session, RealmModel realm) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                invalidate(realmId);
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null) {
+                  cluster.notify(
+                      INVALIDATION_EVENTS,
+                      new InvalidationEvent(realmId),
+                      true,
+                      ClusterProvider.DCNotify.ALL_DCS);
+                }
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  public synchronized void invalidate(String realmId) {
+    revision.incrementAndGet();
+    realms.remove(realmId);
+  }
+
+  public void registerListener(KeycloakSession session) {
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.registerListener(INVALIDATION_EVENTS, this::eventReceived);
+    }
+  }
+
+  private void eventReceived(ClusterEvent event) {
+    if (!(event instanceof InvalidationEvent)) return;
+    String realmId = ((InvalidationEvent) event).getRealmId();
+    log.tracef("Dropping organization identity provider index of %s", realmId);
+    invalidate(realmId);
+  }
+
+  private static String getOwner(IdentityProviderModel idp) {
+    Map<String, String> config = idp.getConfig();
+    return config == null ? null : config.get(ORG_OWNER_CONFIG_KEY);
+  }
+
+  // bumped on every node whenever the cached realm, its identity providers included, is
+  // invalidated. Without a realm cache, only the changes seen by the index are known.
+  private static Long getRealmRevision(KeycloakSession session, RealmModel realm) {
+    CacheRealmProvider cache = session.getProvider(CacheRealmProvider.class);
+    return cache instanceof RealmCacheSession
+        ? ((RealmCacheSession) cache).getRealmCache().getCurrentRevision(realm.getId())
+        : null;
+  }
+
+  // only installed if nothing changed while building, so that a build racing with a commit can't
+  // leave a stale index behind
+  private RealmIndex load(RealmModel realm, Long realmRevision) {
+    long startRevision = revision.get();
+    RealmIndex index = new RealmIndex(realmRevision);
+    realm
+        .getIdentityProvidersStream()
+        .forEach(
+            idp -> {
+              String owner = getOwner(idp);
+              if (owner != null) index.put(idp.getAlias(), owner);
+            });
+    synchronized (this) {
+      if (revision.get() == startRevision) {
+        realms.put(realm.getId(), index);
+        log.debugf("Built organization identity provider index of %s", realm.getName());
+      }
+    }
+    return index;
+  }
+
+  private void onCommit(KeycloakSession session, RealmModel realm, Consumer<RealmIndex> change) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                synchronized (OrganizationIdentityProviderIndex.this) {
+                  revision.incrementAndGet();
+                  RealmIndex index = realms.get(realmId);
+                  if (index != null) change.accept(index);
+                }
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null) {
+                  cluster.notify(
+                      INVALIDATION_EVENTS,
+                      new InvalidationEvent(realmId),
+                      true,
+                      ClusterProvider.DCNotify.ALL_DCS);
+                }
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  private static class RealmIndex {
+    private final Long realmRevision;
+    private final Map<String, Set<String>> aliasesByOrg = new ConcurrentHashMap<>();
+    private final Map<String, String> ownerByAlias = new ConcurrentHashMap<>();
+
+    RealmIndex(Long realmRevision) {
+      this.realmRevision = realmRevision;
+    }
+
+    Set<String> getAliases(String orgId) {
+      return aliasesByOrg.getOrDefault(orgId, Collections.emptySet());
+    }
+
+    /** Sets the owner of the alias, or removes it if the owner is null. */
+    synchronized void put(String alias, String owner) {
+      String previous = owner == null ? ownerByAlias.remove(alias) : ownerByAlias.put(alias, owner);
+      if (previous != null) {
+        Set<String> aliases = aliasesByOrg.get(previous);
+        if (aliases != null) {
+          aliases.remove(alias);
+          if (aliases.isEmpty()) aliasesByOrg.remove(previous);
+        }
+      }
+      if (owner != null) {
+        aliasesByOrg.computeIfAbsent(owner, k -> new ConcurrentSkipListSet<>()).add(alias);
+      }
+    }
+  }
+
+  /** Sent to the other nodes when identity providers of a realm changed. */
+  public static class InvalidationEvent implements ClusterEvent, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+
+    public InvalidationEvent(String realmId) {
+      this.realmId = realmId;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "OrganizationIdentityProviderIndex.InvalidationEvent [ realmId=%s ]", realmId);
+    }
+  }
+}
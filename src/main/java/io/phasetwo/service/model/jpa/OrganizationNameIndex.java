@@ -0,0 +1,238 @@
+package io.phasetwo.service.model.jpa;
+
+import static org.keycloak.utils.StreamsUtil.closing;
+
+import io.phasetwo.service.model.OrganizationModel;
+import jakarta.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Node-local prefix index of organization names and display names, used for typeahead
+ * suggestions. The index of a realm is loaded from the database on first use and kept up to date
+ * from the organization events committed on this node. A change committed on another node drops
+ * the realm's index, so that it is loaded again on the next use.
+ */
+@JBossLog
+public class OrganizationNameIndex {
+
+  public static final String INVALIDATION_EVENTS = "ORGANIZATION_NAME_INDEX_EVENTS";
+
+  private static final OrganizationNameIndex INSTANCE = new OrganizationNameIndex();
+
+  public static OrganizationNameIndex get() {
+    return INSTANCE;
+  }
+
+  private final ConcurrentMap<String, RealmIndex> realms = new ConcurrentHashMap<>();
+  private final AtomicLong revision = new AtomicLong();
+
+  /** Gets up to max organizations whose name or display name starts with prefix. */
+  public List<Entry> suggest(KeycloakSession session, RealmModel realm, String prefix, int max) {
+    RealmIndex index = realms.get(realm.getId());
+    if (index == null) index = load(session, realm);
+    return index.suggest(prefix.toLowerCase(Locale.ROOT), max);
+  }
+
+  public void organizationChanged(KeycloakSession session, OrganizationModel org) {
+    Entry entry = new Entry(org.getId(), org.getName(), org.getDisplayName());
+    onCommit(session, org.getRealm(), index -> index.put(entry));
+  }
+
+  public void organizationRemoved(KeycloakSession session, OrganizationModel org) {
+    String id = org.getId();
+    onCommit(session, org.getRealm(), index -> index.remove(id));
+  }
+
+  /** Drops the index of the realm on all nodes once the current transaction commits. */
+  public void invalidate(KeycloakSession session, RealmModel realm) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                invalidate(realmId);
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null) {
+                  cluster.notify(
+                      INVALIDATION_EVENTS,
+                      new InvalidationEvent(realmId),
+                      true,
+                      ClusterProvider.DCNotify.ALL_DCS);
+                }
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  public synchronized void invalidate(String realmId) {
+    revision.incrementAndGet();
+    realms.remove(realmId);
+  }
+
+  public void registerListener(KeycloakSession session) {
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.registerListener(INVALIDATION_EVENTS, this::eventReceived);
+    }
+  }
+
+  private void eventReceived(ClusterEvent event) {
+    if (!(event instanceof InvalidationEvent)) return;
+    String realmId = ((InvalidationEvent) event).getRealmId();
+    log.tracef("Dropping organization name index of %s", realmId);
+    invalidate(realmId);
+  }
+
+  // the index is only installed if nothing changed while it was loaded, so that a load racing
+  // with a commit can't leave a stale index behind
+  private RealmIndex load(KeycloakSession session, RealmModel realm) {
+    long startRevision = revision.get();
+    RealmIndex index = new RealmIndex();
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    closing(
+            em.createNamedQuery("getOrganizationNamesByRealmId", Object[].class)
+                .setParameter("realmId", realm.getId())
+                .getResultStream())
+        .forEach(row -> index.put(new Entry((String) row[0], (String) row[1], (String) row[2])));
+    synchronized (this) {
+      if (revision.get() == startRevision) {
+        realms.put(realm.getId(), index);
+        log.debugf("Loaded organization name index of %s", realm.getName());
+      }
+    }
+    return index;
+  }
+
+  private void onCommit(KeycloakSession session, RealmModel realm, Consumer<RealmIndex> change) {
+    String realmId = realm.getId();
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                synchronized (OrganizationNameIndex.this) {
+                  revision.incrementAndGet();
+                  RealmIndex index = realms.get(realmId);
+                  if (index != null) change.accept(index);
+                }
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null) {
+                  cluster.notify(
+                      INVALIDATION_EVENTS,
+                      new InvalidationEvent(realmId),
+                      true,
+                      ClusterProvider.DCNotify.ALL_DCS);
+                }
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  static class RealmIndex {
+    // keyed by lowercased term and id, so that a prefix is a contiguous range
+    private final ConcurrentSkipListMap<String, Entry> terms = new ConcurrentSkipListMap<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    synchronized void put(Entry entry) {
+      remove(entry.getId());
+      entries.put(entry.getId(), entry);
+      entry.terms().forEach(t -> terms.put(key(t, entry.getId()), entry));
+    }
+
+    synchronized void remove(String id) {
+      Entry old = entries.remove(id);
+      if (old != null) old.terms().forEach(t -> terms.remove(key(t, id)));
+    }
+
+    List<Entry> suggest(String prefix, int max) {
+      List<Entry> results = new ArrayList<>();
+      Set<String> seen = new HashSet<>();
+      for (Entry e : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+        if (results.size() >= max) break;
+        if (seen.add(e.getId())) results.add(e);
+      }
+      return results;
+    }
+
+    private static String key(String term, String id) {
+      return term + '\0' + id;
+    }
+  }
+
+  public static class Entry {
+    private final String id;
+    private final String name;
+    private final String displayName;
+
+    Entry(String id, String name, String displayName) {
+      this.id = id;
+      this.name = name;
+      this.displayName = displayName;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDisplayName() {
+      return displayName;
+    }
+
+    private Set<String> terms() {
+      Set<String> terms = new HashSet<>();
+      if (name != null) terms.add(name.toLowerCase(Locale.ROOT));
+      if (displayName != null) terms.add(displayName.toLowerCase(Locale.ROOT));
+      return terms;
+    }
+  }
+
+  /** Sent to the other nodes when organization names of a realm changed. */
+  public static class InvalidationEvent implements ClusterEvent, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+
+    public InvalidationEvent(String realmId) {
+      this.realmId = realmId;
+    }
+
+    public String getRealmId() {
+      return realmId;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("OrganizationNameIndex.InvalidationEvent [ realmId=%s ]", realmId);
+    }
+  }
+}
@@ -1,9 +1,13 @@
 package io.phasetwo.service.model.jpa;
 
+import static org.keycloak.utils.StreamsUtil.closing;
+
 import io.phasetwo.service.model.OrganizationRoleModel;
 import io.phasetwo.service.model.jpa.entity.OrganizationRoleEntity;
 import io.phasetwo.service.model.jpa.entity.UserOrganizationRoleMappingEntity;
+import io.phasetwo.service.util.OrganizationDataVersion;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
 import java.util.stream.Stream;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
@@ -44,6 +48,7 @@ public class OrganizationRoleAdapter
 
   @Override
   public void setName(String name) {
+    OrganizationDataVersion.bump(session, realm);
     role.setName(name);
   }
 
@@ -59,7 +64,10 @@ public class OrganizationRoleAdapter
 
   @Override
   public Stream<UserModel> getUserMappingsStream() {
-    return role.getUserMappings().stream()
+    TypedQuery<UserOrganizationRoleMappingEntity> query =
+        em.createNamedQuery("getMappingByRole", UserOrganizationRoleMappingEntity.class);
+    query.setParameter("role", role);
+    return closing(query.getResultStream())
         .map(m -> m.getUserId())
         .map(uid -> session.users().getUserById(realm, uid));
   }
@@ -67,22 +75,32 @@ public class OrganizationRoleAdapter
   @Override
   public void grantRole(UserModel user) {
     // todo must be a member
-    revokeRole(user);
+    if (hasRole(user)) return;
+    OrganizationDataVersion.bump(session, realm);
     UserOrganizationRoleMappingEntity m = new UserOrganizationRoleMappingEntity();
     m.setId(KeycloakModelUtils.generateId());
     m.setUserId(user.getId());
     m.setRole(role);
     em.persist(m);
-    role.getUserMappings().add(m);
   }
 
   @Override
   public void revokeRole(UserModel user) {
-    role.getUserMappings().removeIf(m -> m.getUserId().equals(user.getId()));
+    int removed =
+        em.createNamedQuery("deleteMappingsByRoleAndUser")
+            .setParameter("role", role)
+            .setParameter("userId", user.getId())
+            .executeUpdate();
+    if (removed > 0) OrganizationDataVersion.bump(session, realm);
   }
 
   @Override
   public boolean hasRole(UserModel user) {
-    return role.getUserMappings().stream().anyMatch(m -> m.getUserId().equals(user.getId()));
+    TypedQuery<UserOrganizationRoleMappingEntity> query =
+        em.createNamedQuery("getMappingByRoleAndUser", UserOrganizationRoleMappingEntity.class);
+    query.setParameter("role", role);
+    query.setParameter("userId", user.getId());
+    query.setMaxResults(1);
+    return !query.getResultList().isEmpty();
   }
 }
@@ -0,0 +1,93 @@
+package io.phasetwo.service.model.jpa;
+
+import jakarta.persistence.EntityManager;
+import java.util.List;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+/**
+ * Fills the lowercased search columns of rows written before they existed. It runs in the
+ * background on one node of the cluster at a time, and each chunk is updated in its own
+ * transaction, so that no long running lock is held and startup isn't delayed. Until every row is
+ * filled, searches also match the rows that aren't yet on the original columns (see {@link
+ * #isComplete}). Whether rows are left is always read from the database, so every node switches
+ * to the plain searches once the backfill is done on any of them, and the task then stays
+ * scheduled as a cheap check.
+ */
+@JBossLog
+public class SearchColumnsBackfillTask implements ScheduledTask {
+
+  public static final String TASK_NAME = "SearchColumnsBackfill";
+
+  private static final int CHUNK_SIZE = 1000;
+  private static final long CHECK_INTERVAL_MILLIS = 60000L;
+
+  private static final String[][] COLUMNS = {
+    {"getOrganizationIdsWithoutSearchColumns", "updateOrganizationSearchColumns"},
+    {"getOrganizationAttributeIdsWithoutSearchColumns", "updateOrganizationAttributeSearchColumns"}
+  };
+
+  private static volatile boolean complete;
+  private static volatile long nextCheck;
+
+  /**
+   * Whether the search columns of every row are filled. Until they are, it is checked again at
+   * most once a minute on each node. New rows always have them filled, so it doesn't go back.
+   */
+  public static boolean isComplete(EntityManager em) {
+    if (complete) return true;
+    long now = Time.currentTimeMillis();
+    if (now < nextCheck) return false;
+    return check(em);
+  }
+
+  @Override
+  public void run(KeycloakSession session) {
+    if (complete) return;
+    EntityManager em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    if (check(em)) return;
+    int filled = 0;
+    for (String[] column : COLUMNS) {
+      filled += backfill(session, column[0], column[1]);
+    }
+    if (filled > 0) log.infof("Filled search columns of %d rows", filled);
+  }
+
+  // whether any row is left to fill, read from the database
+  private static boolean check(EntityManager em) {
+    nextCheck = Time.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+    for (String[] column : COLUMNS) {
+      List<String> ids =
+          em.createNamedQuery(column[0], String.class).setMaxResults(1).getResultList();
+      if (!ids.isEmpty()) return false;
+    }
+    complete = true;
+    return true;
+  }
+
+  private int backfill(KeycloakSession session, String selectQuery, String updateQuery) {
+    int total = 0;
+    while (true) {
+      int updated =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              session.getKeycloakSessionFactory(),
+              s -> {
+                EntityManager em = s.getProvider(JpaConnectionProvider.class).getEntityManager();
+                List<String> ids =
+                    em.createNamedQuery(selectQuery, String.class)
+                        .setMaxResults(CHUNK_SIZE)
+                        .getResultList();
+                if (ids.isEmpty()) return 0;
+                em.createNamedQuery(updateQuery).setParameter("ids", ids).executeUpdate();
+                return ids.size();
+              });
+      if (updated == 0) return total;
+      total += updated;
+      log.debugf("Filled search columns of %d rows with %s", total, updateQuery);
+    }
+  }
+}
@@ -12,6 +12,10 @@ import jakarta.persistence.*;
       name = "getVerifiedDomainsByName",
       query =
           "SELECT t FROM DomainEntity t WHERE t.domain = :domain AND t.verified = :verified AND t.organization.realmId = :realmId"),
+  @NamedQuery(
+      name = "getDomainOwnersByRealmId",
+      query =
+          "SELECT t.domain, t.verified, t.organization.id FROM DomainEntity t WHERE t.organization.realmId = :realmId"),
   @NamedQuery(
       name = "getDomainsByOrganization",
       query = "SELECT t FROM DomainEntity t WHERE t.organization = :organization"),
@@ -21,7 +25,15 @@ import jakarta.persistence.*;
           "SELECT t FROM DomainEntity t WHERE t.organization = :organization AND lower(t.domain) LIKE lower(:search)"),
   @NamedQuery(
       name = "getDomainCount",
-      query = "select count(t) from DomainEntity t where t.organization = :organization")
+      query = "select count(t) from DomainEntity t where t.organization = :organization"),
+  @NamedQuery(
+      name = "getVerifiedDomainsAfterId",
+      query =
+          "SELECT t.id, t.domain, o.id, o.realmId FROM DomainEntity t JOIN t.organization o WHERE t.verified = true AND t.id > :lastId ORDER BY t.id"),
+  @NamedQuery(
+      name = "deleteDomainsByRealm",
+      query =
+          "DELETE FROM DomainEntity d WHERE d.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)")
 })
 @Entity
 @Table(
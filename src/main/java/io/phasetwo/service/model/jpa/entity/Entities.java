@@ -1,6 +1,7 @@
 package io.phasetwo.service.model.jpa.entity;
 
 import java.util.Collection;
+import java.util.Locale;
 
 public class Entities {
 
@@ -14,4 +15,9 @@ public class Entities {
       }
     }
   }
+
+  /** Normalizes a value for the lowercased search columns. */
+  static String lowerCase(String value) {
+    return value == null ? null : value.toLowerCase(Locale.ROOT);
+  }
 }
@@ -0,0 +1,137 @@
+package io.phasetwo.service.model.jpa.entity;
+
+import jakarta.persistence.*;
+import java.util.Date;
+
+/** An invitation email waiting to be sent. */
+@NamedQueries({
+  @NamedQuery(
+      name = "getDueInvitationEmailIds",
+      query =
+          "SELECT e.id FROM InvitationEmailEntity e WHERE e.nextAttemptAt <= :now ORDER BY e.nextAttemptAt"),
+  @NamedQuery(
+      name = "claimInvitationEmail",
+      query =
+          "UPDATE InvitationEmailEntity e SET e.nextAttemptAt = :leaseUntil WHERE e.id = :id AND e.nextAttemptAt <= :now"),
+  @NamedQuery(
+      name = "deleteInvitationEmailsByRealm",
+      query = "DELETE FROM InvitationEmailEntity e WHERE e.realmId = :realmId")
+})
+@Entity
+@Table(name = "INVITATION_EMAIL")
+public class InvitationEmailEntity {
+  @Id
+  @Column(name = "ID", length = 36)
+  @Access(AccessType.PROPERTY)
+  protected String id;
+
+  @Column(name = "REALM_ID", nullable = false)
+  protected String realmId;
+
+  @Column(name = "INVITATION_ID", nullable = false)
+  protected String invitationId;
+
+  @Column(name = "INVITER_ID")
+  protected String inviterId;
+
+  @Column(name = "LINK", length = 2048)
+  protected String link;
+
+  @Column(name = "ATTEMPTS")
+  protected int attempts;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "NEXT_ATTEMPT_AT", nullable = false)
+  protected Date nextAttemptAt;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "CREATED_AT")
+  protected Date createdAt;
+
+  @PrePersist
+  protected void onCreate() {
+    if (createdAt == null) createdAt = new Date();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public String getInvitationId() {
+    return invitationId;
+  }
+
+  public void setInvitationId(String invitationId) {
+    this.invitationId = invitationId;
+  }
+
+  public String getInviterId() {
+    return inviterId;
+  }
+
+  public void setInviterId(String inviterId) {
+    this.inviterId = inviterId;
+  }
+
+  public String getLink() {
+    return link;
+  }
+
+  public void setLink(String link) {
+    this.link = link;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Date getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+
+  public void setNextAttemptAt(Date at) {
+    nextAttemptAt = at;
+  }
+
+  public Date getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Date at) {
+    createdAt = at;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null) return false;
+    if (!(o instanceof InvitationEmailEntity)) return false;
+
+    InvitationEmailEntity that = (InvitationEmailEntity) o;
+
+    if (!id.equals(that.getId())) return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+}
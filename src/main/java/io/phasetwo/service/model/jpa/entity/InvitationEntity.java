@@ -9,11 +9,55 @@ import java.util.HashSet;
 import java.util.Set;
 
 /** */
+@NamedNativeQueries({
+  @NamedNativeQuery(
+      name = "deleteInvitationRolesByRealm",
+      query =
+          "DELETE FROM INVITATION_ROLE WHERE INVITATION_ID IN (SELECT i.ID FROM INVITATION i, ORGANIZATION o WHERE i.ORGANIZATION_ID = o.ID AND o.REALM_ID = :realmId)"),
+  @NamedNativeQuery(
+      name = "deleteInvitationTeamsByRealm",
+      query =
+          "DELETE FROM INVITATION_TEAM WHERE INVITATION_ID IN (SELECT i.ID FROM INVITATION i, ORGANIZATION o WHERE i.ORGANIZATION_ID = o.ID AND o.REALM_ID = :realmId)"),
+  @NamedNativeQuery(
+      name = "deleteInvitationRolesByRealmAndEmail",
+      query =
+          "DELETE FROM INVITATION_ROLE WHERE INVITATION_ID IN (SELECT i.ID FROM INVITATION i, ORGANIZATION o WHERE i.ORGANIZATION_ID = o.ID AND o.REALM_ID = :realmId AND i.EMAIL = :email)"),
+  @NamedNativeQuery(
+      name = "deleteInvitationTeamsByRealmAndEmail",
+      query =
+          "DELETE FROM INVITATION_TEAM WHERE INVITATION_ID IN (SELECT i.ID FROM INVITATION i, ORGANIZATION o WHERE i.ORGANIZATION_ID = o.ID AND o.REALM_ID = :realmId AND i.EMAIL = :email)"),
+  @NamedNativeQuery(
+      name = "deleteInvitationRolesByIds",
+      query = "DELETE FROM INVITATION_ROLE WHERE INVITATION_ID IN (:ids)"),
+  @NamedNativeQuery(
+      name = "deleteInvitationTeamsByIds",
+      query = "DELETE FROM INVITATION_TEAM WHERE INVITATION_ID IN (:ids)")
+})
 @NamedQueries({
   @NamedQuery(
       name = "getInvitationByOrganization",
       query =
           "SELECT t FROM InvitationEntity t WHERE t.organization = :organization AND t.id = :id"),
+  @NamedQuery(
+      name = "getInvitationByOrganizationAndEmail",
+      query =
+          "SELECT t FROM InvitationEntity t WHERE t.organization = :organization AND t.email = :email"),
+  @NamedQuery(
+      name = "getInvitationsByOrganizationAndEmails",
+      query =
+          "SELECT t FROM InvitationEntity t WHERE t.organization = :organization AND t.email IN :emails"),
+  @NamedQuery(
+      name = "getInvitationIdsByOrganization",
+      query =
+          "SELECT t.id FROM InvitationEntity t WHERE t.organization = :organization ORDER BY t.email"),
+  @NamedQuery(
+      name = "searchForInvitationIdsByOrganization",
+      query =
+          "SELECT t.id FROM InvitationEntity t WHERE t.organization = :organization AND t.email LIKE :search ORDER BY t.email"),
+  @NamedQuery(
+      name = "getInvitationsWithRolesByIds",
+      query =
+          "SELECT DISTINCT t FROM InvitationEntity t LEFT JOIN FETCH t.roles WHERE t.id IN :ids"),
   @NamedQuery(
       name = "getInvitationsByOrganizationAndEmail",
       query =
@@ -21,10 +65,32 @@ import java.util.Set;
   @NamedQuery(
       name = "getInvitationsByRealmAndEmail",
       query =
-          "SELECT i FROM InvitationEntity i WHERE i.organization in (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId) AND lower(i.email) = lower(:search) ORDER BY i.createdAt"),
+          "SELECT i FROM InvitationEntity i WHERE i.email = :email AND i.organization.realmId = :realmId AND (i.expiresAt IS NULL OR i.expiresAt > :now) ORDER BY i.createdAt"),
+  @NamedQuery(
+      name = "getInvitationIdsByRealmAndEmail",
+      query =
+          "SELECT i.id FROM InvitationEntity i WHERE i.email = :email AND i.organization.realmId = :realmId AND (i.expiresAt IS NULL OR i.expiresAt > :now)"),
+  @NamedQuery(
+      name = "getInvitationEmailsByRealmId",
+      query =
+          "SELECT DISTINCT i.email FROM InvitationEntity i WHERE i.organization.realmId = :realmId"),
+  @NamedQuery(
+      name = "getExpiredInvitationIds",
+      query = "SELECT i.id FROM InvitationEntity i WHERE i.expiresAt <= :now"),
+  @NamedQuery(
+      name = "deleteInvitationsByIds",
+      query = "DELETE FROM InvitationEntity i WHERE i.id IN :ids"),
   @NamedQuery(
       name = "getInvitationCount",
-      query = "select count(t) from InvitationEntity t where t.organization = :organization")
+      query = "select count(t) from InvitationEntity t where t.organization = :organization"),
+  @NamedQuery(
+      name = "deleteInvitationsByRealm",
+      query =
+          "DELETE FROM InvitationEntity i WHERE i.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)"),
+  @NamedQuery(
+      name = "deleteInvitationsByRealmAndEmail",
+      query =
+          "DELETE FROM InvitationEntity i WHERE i.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId) AND i.email = :email")
 })
 @Entity
 @Table(
@@ -52,6 +118,10 @@ public class InvitationEntity {
   @Column(name = "CREATED_AT")
   protected Date createdAt;
 
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "EXPIRES_AT")
+  protected Date expiresAt;
+
   @OneToOne(fetch = FetchType.LAZY)
   @JoinColumn(name = "ORGANIZATION_ID")
   private OrganizationEntity organization;
@@ -130,6 +200,14 @@ public class InvitationEntity {
     createdAt = at;
   }
 
+  public Date getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Date at) {
+    expiresAt = at;
+  }
+
   public OrganizationEntity getOrganization() {
     return organization;
   }
@@ -1,5 +1,7 @@
 package io.phasetwo.service.model.jpa.entity;
 
+import static io.phasetwo.service.model.jpa.entity.Entities.lowerCase;
+
 import jakarta.persistence.Access;
 import jakarta.persistence.AccessType;
 import jakarta.persistence.Column;
@@ -25,6 +27,18 @@ import org.hibernate.annotations.Nationalized;
       name = "getOrganizationAttributesByName",
       query =
           "SELECT attr FROM OrganizationAttributeEntity attr WHERE attr.organization = :organization AND attr.name = :name"),
+  @NamedQuery(
+      name = "deleteOrganizationAttributesByRealm",
+      query =
+          "DELETE FROM OrganizationAttributeEntity a WHERE a.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)"),
+  @NamedQuery(
+      name = "getOrganizationAttributeIdsWithoutSearchColumns",
+      query =
+          "SELECT attr.id FROM OrganizationAttributeEntity attr WHERE attr.valueLc IS NULL AND attr.value IS NOT NULL"),
+  @NamedQuery(
+      name = "updateOrganizationAttributeSearchColumns",
+      query =
+          "UPDATE OrganizationAttributeEntity attr SET attr.valueLc = lower(attr.value) WHERE attr.id IN :ids")
 })
 @Table(
     name = "ORGANIZATION_ATTRIBUTE",
@@ -50,6 +64,11 @@ public class OrganizationAttributeEntity {
   @Column(name = "VALUE")
   protected String value;
 
+  // lowercased copy for case-insensitive search. kept in sync by setValue
+  @Nationalized
+  @Column(name = "VALUE_LC")
+  protected String valueLc;
+
   public String getId() {
     return id;
   }
@@ -72,6 +91,11 @@ public class OrganizationAttributeEntity {
 
   public void setValue(String value) {
     this.value = value;
+    this.valueLc = lowerCase(value);
+  }
+
+  public String getValueLc() {
+    return valueLc;
   }
 
   public OrganizationEntity getOrganization() {
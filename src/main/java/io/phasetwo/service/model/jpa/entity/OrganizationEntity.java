@@ -1,5 +1,6 @@
 package io.phasetwo.service.model.jpa.entity;
 
+import static io.phasetwo.service.model.jpa.entity.Entities.lowerCase;
 import static io.phasetwo.service.model.jpa.entity.Entities.setCollection;
 
 import jakarta.persistence.*;
@@ -17,20 +18,39 @@ import org.hibernate.annotations.Nationalized;
   @NamedQuery(
       name = "getOrganizationsByRealmId",
       query = "SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId"),
+  @NamedQuery(
+      name = "getOrganizationNamesByRealmId",
+      query =
+          "SELECT o.id, o.name, o.displayName FROM OrganizationEntity o WHERE o.realmId = :realmId"),
   @NamedQuery(
       name = "getOrganizationsByRealmIdAndName",
       query =
-          "SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId AND lower(o.name) LIKE lower(:search) ORDER BY o.name"),
+          "SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId AND o.nameLc LIKE :search ORDER BY o.name"),
   @NamedQuery(
       name = "countOrganizationsByRealmIdAndName",
       query =
-          "SELECT count(o) FROM OrganizationEntity o WHERE o.realmId = :realmId AND lower(o.name) LIKE lower(:search)"),
+          "SELECT count(o) FROM OrganizationEntity o WHERE o.realmId = :realmId AND o.nameLc LIKE :search"),
+  @NamedQuery(
+      name = "countOrganizationsByRealmIdAndNameWithFallback",
+      query =
+          "SELECT count(o) FROM OrganizationEntity o WHERE o.realmId = :realmId AND (o.nameLc LIKE :search OR (o.nameLc IS NULL AND lower(o.name) LIKE :search))"),
   @NamedQuery(
       name = "getOrganizationCount",
       query = "select count(o) from OrganizationEntity o where o.realmId = :realmId"),
   @NamedQuery(
       name = "removeAllOrganizations",
-      query = "delete from OrganizationEntity o where o.realmId = :realmId")
+      query = "delete from OrganizationEntity o where o.realmId = :realmId"),
+  @NamedQuery(
+      name = "getDefaultAdminUserIdsByRealmId",
+      query =
+          "SELECT u.id FROM UserEntity u, OrganizationEntity o WHERE o.realmId = :realmId AND u.realmId = :realmId AND u.username = CONCAT('org-admin-', o.id)"),
+  @NamedQuery(
+      name = "getOrganizationIdsWithoutSearchColumns",
+      query = "SELECT o.id FROM OrganizationEntity o WHERE o.nameLc IS NULL"),
+  @NamedQuery(
+      name = "updateOrganizationSearchColumns",
+      query =
+          "UPDATE OrganizationEntity o SET o.nameLc = lower(o.name), o.displayNameLc = lower(o.displayName) WHERE o.id IN :ids")
 })
 @Entity
 @Table(
@@ -47,10 +67,18 @@ public class OrganizationEntity {
   @Column(name = "NAME", nullable = false)
   protected String name;
 
+  // lowercased copies for case-insensitive search. kept in sync by the setters
+  @Column(name = "NAME_LC")
+  protected String nameLc;
+
   @Nationalized
   @Column(name = "DISPLAY_NAME")
   protected String displayName;
 
+  @Nationalized
+  @Column(name = "DISPLAY_NAME_LC")
+  protected String displayNameLc;
+
   @Column(name = "URL")
   protected String url;
 
@@ -162,6 +190,11 @@ public class OrganizationEntity {
 
   public void setName(String name) {
     this.name = name;
+    this.nameLc = lowerCase(name);
+  }
+
+  public String getNameLc() {
+    return nameLc;
   }
 
   public String getDisplayName() {
@@ -170,6 +203,11 @@ public class OrganizationEntity {
 
   public void setDisplayName(String displayName) {
     this.displayName = displayName;
+    this.displayNameLc = lowerCase(displayName);
+  }
+
+  public String getDisplayNameLc() {
+    return displayNameLc;
   }
 
   public String getUrl() {
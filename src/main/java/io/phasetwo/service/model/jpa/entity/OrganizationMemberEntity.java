@@ -34,7 +34,45 @@ import java.util.Objects;
           "SELECT m FROM OrganizationMemberEntity m WHERE m.organization = :organization AND m.userId = :id"),
   @NamedQuery(
       name = "getOrganizationMembershipsByUserId",
-      query = "SELECT m FROM OrganizationMemberEntity m WHERE m.userId = :id")
+      query = "SELECT m FROM OrganizationMemberEntity m WHERE m.userId = :id"),
+  @NamedQuery(
+      name = "getOrganizationRolesByUserId",
+      query =
+          "SELECT o, r.name, rm.id FROM OrganizationMemberEntity m JOIN m.organization o LEFT JOIN OrganizationRoleEntity r ON r.organization = o LEFT JOIN UserOrganizationRoleMappingEntity rm ON rm.role = r AND rm.userId = m.userId WHERE m.userId = :id AND o.realmId = :realmId"),
+  @NamedQuery(
+      name = "getOrganizationMemberUserIds",
+      query =
+          "SELECT m.userId FROM OrganizationMemberEntity m WHERE m.organization = :organization AND m.userId IN :ids"),
+  @NamedQuery(
+      name = "getRealmUserIdsByIds",
+      query = "SELECT u.id FROM UserEntity u WHERE u.realmId = :realmId AND u.id IN :ids"),
+  @NamedQuery(
+      name = "getRealmServiceAccountIdsByIds",
+      query =
+          "SELECT u.id FROM UserEntity u WHERE u.realmId = :realmId AND u.id IN :ids AND u.serviceAccountClientLink IS NOT NULL"),
+  @NamedQuery(
+      name = "getRealmUserIdsByEmails",
+      query =
+          "SELECT u.id, u.email FROM UserEntity u WHERE u.realmId = :realmId AND u.email IN :emails"),
+  @NamedQuery(
+      name = "deleteOrganizationMembershipsByUserId",
+      query = "DELETE FROM OrganizationMemberEntity m WHERE m.userId = :id"),
+  @NamedQuery(
+      name = "deleteOrganizationMemberByUserId",
+      query =
+          "DELETE FROM OrganizationMemberEntity m WHERE m.organization = :organization AND m.userId = :id"),
+  @NamedQuery(
+      name = "getOrganizationMemberIds",
+      query =
+          "SELECT u.id FROM OrganizationMemberEntity m, UserEntity u WHERE m.organization = :organization AND u.id = m.userId AND u.serviceAccountClientLink IS NULL ORDER BY m.createdAt, m.id"),
+  @NamedQuery(
+      name = "searchForOrganizationMemberIds",
+      query =
+          "SELECT u.id FROM OrganizationMemberEntity m, UserEntity u WHERE m.organization = :organization AND u.id = m.userId AND u.serviceAccountClientLink IS NULL AND (lower(u.email) LIKE :search OR lower(u.username) LIKE :search OR lower(u.firstName) LIKE :search OR lower(u.lastName) LIKE :search) ORDER BY m.createdAt, m.id"),
+  @NamedQuery(
+      name = "deleteOrganizationMembersByRealm",
+      query =
+          "DELETE FROM OrganizationMemberEntity m WHERE m.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)")
 })
 @Table(
     name = "ORGANIZATION_MEMBER",
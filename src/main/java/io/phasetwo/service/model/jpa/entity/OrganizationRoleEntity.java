@@ -19,7 +19,11 @@ import java.util.Objects;
   @NamedQuery(
       name = "removeOrganizationRole",
       query =
-          "DELETE FROM OrganizationRoleEntity m WHERE m.organization = :organization AND m.name = :name")
+          "DELETE FROM OrganizationRoleEntity m WHERE m.organization = :organization AND m.name = :name"),
+  @NamedQuery(
+      name = "deleteOrganizationRolesByRealm",
+      query =
+          "DELETE FROM OrganizationRoleEntity r WHERE r.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)")
 })
 @Table(
     name = "ORGANIZATION_ROLE",
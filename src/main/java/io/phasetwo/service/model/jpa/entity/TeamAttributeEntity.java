@@ -25,6 +25,10 @@ import org.hibernate.annotations.Nationalized;
       name = "getTeamAttributesByName",
       query =
           "SELECT attr FROM TeamAttributeEntity attr WHERE attr.team = :team AND attr.name = :name"),
+  @NamedQuery(
+      name = "deleteTeamAttributesByRealm",
+      query =
+          "DELETE FROM TeamAttributeEntity a WHERE a.team IN (SELECT t FROM TeamEntity t WHERE t.organization.realmId = :realmId)")
 })
 @Table(
     name = "TEAM_ATTRIBUTE",
@@ -24,7 +24,11 @@ import org.hibernate.annotations.Nationalized;
           "SELECT t FROM TeamEntity t WHERE t.organization = :organization AND lower(t.name) LIKE lower(:search) ORDER BY t.name"),
   @NamedQuery(
       name = "getTeamCount",
-      query = "select count(t) from TeamEntity t where t.organization = :organization")
+      query = "select count(t) from TeamEntity t where t.organization = :organization"),
+  @NamedQuery(
+      name = "deleteTeamsByRealm",
+      query =
+          "DELETE FROM TeamEntity t WHERE t.organization IN (SELECT o FROM OrganizationEntity o WHERE o.realmId = :realmId)")
 })
 @Entity
 @Table(
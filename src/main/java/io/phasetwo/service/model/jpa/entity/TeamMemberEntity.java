@@ -29,6 +29,10 @@ import java.util.Objects;
   @NamedQuery(
       name = "getTeamMembershipsByUserId",
       query = "SELECT m FROM TeamMemberEntity m WHERE m.userId = :id"),
+  @NamedQuery(
+      name = "deleteTeamMembersByRealm",
+      query =
+          "DELETE FROM TeamMemberEntity m WHERE m.team IN (SELECT t FROM TeamEntity t WHERE t.organization.realmId = :realmId)")
 })
 @Table(
     name = "TEAM_MEMBER",
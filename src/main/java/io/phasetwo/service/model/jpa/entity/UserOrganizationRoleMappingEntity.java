@@ -35,13 +35,25 @@ import java.util.Objects;
   @NamedQuery(
       name = "getMappingsByUser",
       query = "SELECT m FROM UserOrganizationRoleMappingEntity m WHERE m.userId = :userId"),
+  @NamedQuery(
+      name = "getRoleNamesByOrganizationAndUserIds",
+      query =
+          "SELECT m.userId, r.name FROM UserOrganizationRoleMappingEntity m JOIN m.role r WHERE r.organization = :organization AND m.userId IN :userIds"),
   @NamedQuery(
       name = "deleteMappingsByRoleAndUser",
       query =
           "DELETE FROM UserOrganizationRoleMappingEntity m WHERE m.role = :role AND m.userId = :userId"),
+  @NamedQuery(
+      name = "deleteOrganizationMappingsByUser",
+      query =
+          "DELETE FROM UserOrganizationRoleMappingEntity m WHERE m.userId = :userId AND m.role IN (SELECT r FROM OrganizationRoleEntity r WHERE r.organization = :organization)"),
   @NamedQuery(
       name = "deleteMappingsByUser",
-      query = "DELETE FROM UserOrganizationRoleMappingEntity m WHERE m.userId = :userId")
+      query = "DELETE FROM UserOrganizationRoleMappingEntity m WHERE m.userId = :userId"),
+  @NamedQuery(
+      name = "deleteMappingsByRealm",
+      query =
+          "DELETE FROM UserOrganizationRoleMappingEntity m WHERE m.role IN (SELECT r FROM OrganizationRoleEntity r WHERE r.organization.realmId = :realmId)")
 })
 @Table(
     name = "USER_ORGANIZATION_ROLE_MAPPING",
@@ -1,5 +1,10 @@
 package io.phasetwo.service.protocol.oidc.mappers;
 
+import com.google.common.collect.ImmutableMap;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.util.OrganizationDataVersion;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import lombok.extern.jbosslog.JBossLog;
@@ -17,6 +22,7 @@ import org.keycloak.protocol.oidc.mappers.UserInfoTokenMapper;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public abstract class AbstractOrganizationMapper extends AbstractOIDCProtocolMapper
@@ -35,6 +41,12 @@ public abstract class AbstractOrganizationMapper extends AbstractOIDCProtocolMap
     this.config = config;
   }
 
+  private static final String USER_ORGANIZATION_ROLES =
+      AbstractOrganizationMapper.class.getName() + ".userOrganizationRoles";
+  private static final String ORGANIZATION_CLAIM =
+      AbstractOrganizationMapper.class.getName() + ".claim";
+  private static final String CLAIM_NOTE_PREFIX = "org.claim.";
+
   private final String providerId;
   private final String displayType;
   private final String displayCategory;
@@ -69,6 +81,70 @@ public abstract class AbstractOrganizationMapper extends AbstractOIDCProtocolMap
   protected abstract Map<String, Object> getOrganizationClaim(
       KeycloakSession session, RealmModel realm, UserModel user);
 
+  /**
+   * Gets the organizations and role names of the user. This is loaded once per request and shared
+   * by all organization mappers.
+   */
+  @SuppressWarnings("unchecked")
+  protected static Map<OrganizationModel, List<String>> getUserOrganizationRoles(
+      KeycloakSession session, RealmModel realm, UserModel user) {
+    String key = String.format("%s.%s.%s", USER_ORGANIZATION_ROLES, realm.getId(), user.getId());
+    Map<OrganizationModel, List<String>> roles = session.getAttribute(key, Map.class);
+    if (roles == null) {
+      roles =
+          session.getProvider(OrganizationProvider.class).getUserOrganizationRoles(realm, user);
+      session.setAttribute(key, roles);
+    }
+    return roles;
+  }
+
+  /**
+   * Gets the claim of this mapper, computing it only once for all the tokens issued with the
+   * client session context. The claim is also kept in a user session note along with the
+   * organization data version it was computed from, so that refreshes can reuse it until an
+   * organization write changes the version.
+   */
+  private Object getClaim(
+      KeycloakSession session, UserSessionModel userSession, ClientSessionContext ctx) {
+    String key = String.format("%s.%s", ORGANIZATION_CLAIM, getId());
+    Object claim = ctx.getAttribute(key, Object.class);
+    if (claim != null) return claim;
+
+    RealmModel realm = userSession.getRealm();
+    String version = OrganizationDataVersion.get(session, realm);
+    String noteKey = CLAIM_NOTE_PREFIX + getId();
+    claim = readClaimNote(userSession.getNote(noteKey), version);
+    if (claim == null) {
+      claim = getOrganizationClaim(session, realm, userSession.getUser());
+      if (claim == null) return null;
+      writeClaimNote(userSession, noteKey, version, claim);
+    }
+    ctx.setAttribute(key, claim);
+    return claim;
+  }
+
+  private static Object readClaimNote(String note, String version) {
+    if (note == null) return null;
+    try {
+      Map<?, ?> memo = JsonSerialization.readValue(note, Map.class);
+      return version.equals(memo.get("version")) ? memo.get("claim") : null;
+    } catch (IOException e) {
+      log.debugf(e, "unreadable org claim note");
+      return null;
+    }
+  }
+
+  private static void writeClaimNote(
+      UserSessionModel userSession, String noteKey, String version, Object claim) {
+    try {
+      userSession.setNote(
+          noteKey,
+          JsonSerialization.writeValueAsString(ImmutableMap.of("version", version, "claim", claim)));
+    } catch (IOException e) {
+      log.warnf(e, "unable to write org claim note %s", noteKey);
+    }
+  }
+
   @Override
   protected void setClaim(
       IDToken token,
@@ -77,8 +153,7 @@ public abstract class AbstractOrganizationMapper extends AbstractOIDCProtocolMap
       KeycloakSession keycloakSession,
       ClientSessionContext clientSessionCtx) {
     log.debugf("adding org claim to idToken for %s", userSession.getUser().getUsername());
-    Object claim =
-        getOrganizationClaim(keycloakSession, userSession.getRealm(), userSession.getUser());
+    Object claim = getClaim(keycloakSession, userSession, clientSessionCtx);
     if (claim == null) return;
     OIDCAttributeMapperHelper.mapClaim(token, mappingModel, claim);
   }
@@ -91,9 +166,7 @@ public abstract class AbstractOrganizationMapper extends AbstractOIDCProtocolMap
       KeycloakSession keycloakSession,
       ClientSessionContext clientSessionCtx) {
     log.debugf("adding org claim to accessToken for %s", userSession.getUser().getUsername());
-    UserModel user = userSession.getUser();
-    Object claim =
-        getOrganizationClaim(keycloakSession, userSession.getRealm(), userSession.getUser());
+    Object claim = getClaim(keycloakSession, userSession, clientSessionCtx);
     if (claim == null) return;
     OIDCAttributeMapperHelper.mapClaim(accessTokenResponse, mappingModel, claim);
   }
@@ -3,7 +3,6 @@ package io.phasetwo.service.protocol.oidc.mappers;
 import com.google.auto.service.AutoService;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import io.phasetwo.service.model.OrganizationProvider;
 import java.util.List;
 import java.util.Map;
 import lombok.extern.jbosslog.JBossLog;
@@ -39,9 +38,9 @@ public class OrganizationAttributeMapper extends AbstractOrganizationMapper {
   @Override
   protected Map<String, Object> getOrganizationClaim(
       KeycloakSession session, RealmModel realm, UserModel user) {
-    OrganizationProvider orgs = session.getProvider(OrganizationProvider.class);
     Map<String, Object> claim = Maps.newHashMap();
-    orgs.getUserOrganizationsStream(realm, user)
+    getUserOrganizationRoles(session, realm, user)
+        .keySet()
         .forEach(
             o -> {
               Map<String, Object> org = Maps.newHashMap();
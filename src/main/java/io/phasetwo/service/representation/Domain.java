@@ -9,6 +9,7 @@ public class Domain {
   private String recordKey;
   private String recordValue;
   private boolean verified = false;
+  private String verificationStatus;
   private String type;
 
   public Domain domainName(String domainName) {
@@ -81,4 +82,18 @@ public class Domain {
   public void setVerified(boolean verified) {
     this.verified = verified;
   }
+
+  public Domain verificationStatus(String verificationStatus) {
+    this.verificationStatus = verificationStatus;
+    return this;
+  }
+
+  @JsonProperty("verification_status")
+  public String getVerificationStatus() {
+    return verificationStatus;
+  }
+
+  public void setVerificationStatus(String verificationStatus) {
+    this.verificationStatus = verificationStatus;
+  }
 }
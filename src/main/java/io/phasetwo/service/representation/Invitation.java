@@ -15,6 +15,7 @@ public class Invitation {
   private @Valid String id = null;
   private @Valid String email = null;
   private @Valid String createdAt = null;
+  private @Valid String expiresAt = null;
   private @Valid String inviterId = null;
   private @Valid String invitationUrl = null;
   private @Valid String organizationId = null;
@@ -79,6 +80,38 @@ public class Invitation {
     this.createdAt = df.format(createdAt);
   }
 
+  /** ISO 8601 format: YYYY-MM-DDTHH:MM:SSZ */
+  public Invitation expiresAt(String expiresAt) {
+    this.expiresAt = expiresAt;
+    return this;
+  }
+
+  public Invitation expiresAt(Date expiresAt) {
+    setExpiresAt(expiresAt);
+    return this;
+  }
+
+  @JsonProperty("expiresAt")
+  public String getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(String expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  @JsonIgnore
+  public void setExpiresAt(Date expiresAt) {
+    if (expiresAt == null) {
+      this.expiresAt = null;
+      return;
+    }
+    TimeZone tz = TimeZone.getTimeZone("UTC");
+    DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
+    df.setTimeZone(tz);
+    this.expiresAt = df.format(expiresAt);
+  }
+
   public Invitation inviterId(String inviterId) {
     this.inviterId = inviterId;
     return this;
@@ -180,6 +213,7 @@ public class Invitation {
     return Objects.equals(id, invitation.id)
         && Objects.equals(email, invitation.email)
         && Objects.equals(createdAt, invitation.createdAt)
+        && Objects.equals(expiresAt, invitation.expiresAt)
         && Objects.equals(inviterId, invitation.inviterId)
         && Objects.equals(organizationId, invitation.organizationId)
         && Objects.equals(invitationUrl, invitation.invitationUrl)
@@ -189,7 +223,8 @@ public class Invitation {
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, email, createdAt, inviterId, organizationId, invitationUrl, roles);
+    return Objects.hash(
+        id, email, createdAt, expiresAt, inviterId, organizationId, invitationUrl, roles);
   }
 
   @Override
@@ -200,6 +235,7 @@ public class Invitation {
     sb.append("    id: ").append(toIndentedString(id)).append("\n");
     sb.append("    email: ").append(toIndentedString(email)).append("\n");
     sb.append("    createdAt: ").append(toIndentedString(createdAt)).append("\n");
+    sb.append("    expiresAt: ").append(toIndentedString(expiresAt)).append("\n");
     sb.append("    inviterId: ").append(toIndentedString(inviterId)).append("\n");
     sb.append("    organizationId: ").append(toIndentedString(organizationId)).append("\n");
     sb.append("    invitationUrl: ").append(toIndentedString(invitationUrl)).append("\n");
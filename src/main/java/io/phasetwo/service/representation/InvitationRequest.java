@@ -13,6 +13,7 @@ public class InvitationRequest {
   private boolean send = false;
   private @Valid List<String> roles = Lists.newArrayList();
   private String redirectUri = null;
+  private Long expiresIn = null;
 
   public InvitationRequest email(String email) {
     this.email = email;
@@ -72,6 +73,21 @@ public class InvitationRequest {
     this.redirectUri = redirectUri;
   }
 
+  /** Seconds until the invitation expires. Invitations without it don't expire. */
+  public InvitationRequest expiresIn(Long expiresIn) {
+    this.expiresIn = expiresIn;
+    return this;
+  }
+
+  @JsonProperty("expiresIn")
+  public Long getExpiresIn() {
+    return expiresIn;
+  }
+
+  public void setExpiresIn(Long expiresIn) {
+    this.expiresIn = expiresIn;
+  }
+
   public InvitationRequest role(String role) {
     if (roles == null) {
       roles = Lists.newArrayList();
@@ -107,12 +123,13 @@ public class InvitationRequest {
         && Objects.equals(inviterId, invitationRequest.inviterId)
         && Objects.equals(send, invitationRequest.send)
         && Objects.equals(redirectUri, invitationRequest.redirectUri)
+        && Objects.equals(expiresIn, invitationRequest.expiresIn)
         && Objects.equals(roles, invitationRequest.roles);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(email, inviterId, send, redirectUri, roles);
+    return Objects.hash(email, inviterId, send, redirectUri, expiresIn, roles);
   }
 
   @Override
@@ -124,6 +141,7 @@ public class InvitationRequest {
     sb.append("    inviterId: ").append(toIndentedString(inviterId)).append("\n");
     sb.append("    send: ").append(toIndentedString(send)).append("\n");
     sb.append("    redirectUri: ").append(toIndentedString(redirectUri)).append("\n");
+    sb.append("    expiresIn: ").append(toIndentedString(expiresIn)).append("\n");
     sb.append("    roles: ").append(toIndentedString(roles)).append("\n");
     sb.append("}");
     return sb.toString();
@@ -77,7 +77,7 @@ public abstract class AbstractAdminResource<T extends AdminAuth> {
     Cors.add(request)
         .allowedOrigins(auth.getToken())
         .allowedMethods(CorsResource.METHODS)
-        .exposedHeaders("Location")
+        .exposedHeaders("Location", OrganizationsResource.NEXT_CURSOR_HEADER)
         .auth()
         .build(response);
   }
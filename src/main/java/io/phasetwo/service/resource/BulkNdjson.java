@@ -0,0 +1,65 @@
+package io.phasetwo.service.resource;
+
+import io.phasetwo.service.representation.BulkResponseItem;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Streaming of bulk NDJSON requests. The non-blank lines of the request are handed out in chunks,
+ * and the results of each chunk are written as soon as it is done, one JSON item per line.
+ */
+public class BulkNdjson {
+
+  public static final String NDJSON = "application/x-ndjson";
+
+  /**
+   * Creates a {@code 207 Multi-Status} response that streams the results of the request body. The
+   * handler gets the trimmed lines of each chunk, and returns one item per line, in order. It is
+   * called after the resource method returned, so it must not use the request's session.
+   */
+  public static Response stream(
+      InputStream body, int chunkSize, Function<List<String>, List<BulkResponseItem>> handler) {
+    StreamingOutput output =
+        out -> {
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+          Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+          List<String> chunk = new ArrayList<>();
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            chunk.add(line.trim());
+            if (chunk.size() == chunkSize) {
+              writeItems(writer, handler.apply(chunk));
+              chunk = new ArrayList<>();
+            }
+          }
+          if (!chunk.isEmpty()) writeItems(writer, handler.apply(chunk));
+          writer.flush();
+        };
+    return Response.status(207) // <-Multi-Status
+        .type(NDJSON)
+        .entity(output)
+        .build();
+  }
+
+  private static void writeItems(Writer writer, List<BulkResponseItem> items) throws IOException {
+    for (BulkResponseItem item : items) {
+      writer.write(JsonSerialization.writeValueAsString(item));
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+}
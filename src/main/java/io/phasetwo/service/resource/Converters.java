@@ -71,6 +71,7 @@ public class Converters {
         .id(e.getId())
         .email(e.getEmail())
         .createdAt(e.getCreatedAt())
+        .expiresAt(e.getExpiresAt())
         .inviterId(e.getInviterId())
         .organizationId(e.getOrganization().getId())
         .roles(Lists.newArrayList(e.getRoles()))
@@ -83,8 +84,8 @@ public class Converters {
         .id(e.getId())
         .email(e.getEmail())
         .createdAt(e.getCreatedAt())
-        .inviterId(e.getInviter().getId())
-        .organizationId(e.getOrganization().getId())
+        .inviterId(e.getInviterId())
+        .organizationId(e.getOrganizationId())
         .roles(Lists.newArrayList(e.getRoles()));
   }
 }
@@ -0,0 +1,79 @@
+package io.phasetwo.service.resource;
+
+import org.keycloak.common.ClientConnection;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+
+/**
+ * The caller of an admin request, captured while the request is handled so that admin events can
+ * be sent from another session once the request's session is closed, e.g. by the chunks of a bulk
+ * request. Only ids are kept, and the models are looked up again in the session of the event.
+ */
+public class DetachedAdminEvent {
+
+  private final String authRealmId;
+  private final String authClientId;
+  private final String authUserId;
+  private final String ipAddress;
+  private final AccessToken token;
+
+  public DetachedAdminEvent(AdminAuth auth, ClientConnection connection) {
+    this.authRealmId = auth.getRealm().getId();
+    this.authClientId = auth.getClient() == null ? null : auth.getClient().getId();
+    this.authUserId = auth.getUser() == null ? null : auth.getUser().getId();
+    this.ipAddress = connection.getRemoteAddr();
+    this.token = auth.getToken();
+  }
+
+  /** Gets the caller in the given session. It may be in another realm than the request's. */
+  public UserModel getAuthUser(KeycloakSession session) {
+    if (authUserId == null) return null;
+    return session.users().getUserById(session.realms().getRealm(authRealmId), authUserId);
+  }
+
+  /** Creates an admin event builder for the realm in the given session. */
+  public AdminEventBuilder builder(KeycloakSession session, RealmModel realm) {
+    RealmModel authRealm = session.realms().getRealm(authRealmId);
+    ClientModel authClient = authClientId == null ? null : authRealm.getClientById(authClientId);
+    AdminAuth auth = new AdminAuth(authRealm, token, getAuthUser(session), authClient);
+    return new AdminEventBuilder(realm, auth, session, new Connection(ipAddress)).realm(realm);
+  }
+
+  private static class Connection implements ClientConnection {
+    private final String remoteAddr;
+
+    Connection(String remoteAddr) {
+      this.remoteAddr = remoteAddr;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+      return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+      return remoteAddr;
+    }
+
+    @Override
+    public int getRemotePort() {
+      return 0;
+    }
+
+    @Override
+    public String getLocalAddr() {
+      return null;
+    }
+
+    @Override
+    public int getLocalPort() {
+      return 0;
+    }
+  }
+}
@@ -3,23 +3,17 @@ package io.phasetwo.service.resource;
 import static io.phasetwo.service.resource.Converters.*;
 import static org.keycloak.models.utils.ModelToRepresentation.*;
 
-import com.google.common.base.Joiner;
-import com.google.common.hash.Hashing;
 import io.phasetwo.service.model.DomainModel;
 import io.phasetwo.service.model.OrganizationModel;
 import io.phasetwo.service.representation.Domain;
+import io.phasetwo.service.util.DomainVerifier;
 import jakarta.validation.constraints.*;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import java.nio.charset.StandardCharsets;
+import java.net.URI;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
-import org.xbill.DNS.Lookup;
-import org.xbill.DNS.Record;
-import org.xbill.DNS.SimpleResolver;
-import org.xbill.DNS.TXTRecord;
-import org.xbill.DNS.Type;
 
 @JBossLog
 public class DomainsResource extends OrganizationAdminResource {
@@ -48,24 +42,16 @@ public class DomainsResource extends OrganizationAdminResource {
   }
 
   private Domain fromModel(DomainModel d) {
+    DomainVerifier.Status status =
+        d.isVerified()
+            ? DomainVerifier.Status.VERIFIED
+            : DomainVerifier.get().getStatus(session, realm, organization, d.getDomain());
     return new Domain()
         .domainName(d.getDomain())
         .verified(d.isVerified())
-        .recordKey(RECORD_KEY)
-        .recordValue(getRecordValue(d.getDomain()));
-  }
-
-  private static final String RECORD_KEY = "_org-domain-ownership";
-
-  private String getRecordKey(String domainName) {
-    return String.format("%s.%s", RECORD_KEY, domainName);
-  }
-
-  private String getRecordValue(String domainName) {
-    return Hashing.sha256()
-        .hashString(
-            String.format("%s %s", domainName, organization.getId()), StandardCharsets.UTF_8)
-        .toString();
+        .verificationStatus(status == null ? null : status.name())
+        .recordKey(DomainVerifier.RECORD_KEY)
+        .recordValue(DomainVerifier.getRecordValue(d.getDomain(), organization.getId()));
   }
 
   private DomainModel lookupDomain(String domainName) {
@@ -77,44 +63,22 @@ public class DomainsResource extends OrganizationAdminResource {
     return d;
   }
 
-  private void startVerification(String domainName) {
-    String valueToCompare = getRecordValue(domainName);
-    try {
-      Lookup lookup = new Lookup(getRecordKey(domainName), Type.TXT);
-      lookup.setResolver(new SimpleResolver());
-      lookup.setCache(null);
-      Record[] records = lookup.run();
-      if (lookup.getResult() == Lookup.SUCCESSFUL) {
-        StringBuilder builder = new StringBuilder();
-        for (Record record : records) {
-          final TXTRecord txt = (TXTRecord) record;
-          builder.delete(0, builder.length());
-          String text = Joiner.on("").join(txt.getStrings().iterator());
-          log.infof("found record for %s = %s", getRecordKey(domainName), text);
-          if (valueToCompare.equals(text)) {
-            log.infof("verified domain %s using %s", domainName, valueToCompare);
-            lookupDomain(domainName).setVerified(true);
-            break;
-          }
-        }
-      }
-    } catch (Exception e) {
-      log.warn("Error during DNS verification", e);
-    }
-  }
-
   @POST
   @Path("{domainName}/verify")
   @Produces(MediaType.APPLICATION_JSON)
   public Response verifyDomain(@PathParam("domainName") String domainName) {
-    log.infof("verifyDomain %s %s", domainName, organization.getId());
+    log.debugf("verifyDomain %s %s", domainName, organization.getId());
     if (auth.hasManageOrgs() || auth.hasOrgManageOrg(organization)) {
-      log.infof("startVerification %s %s", domainName, organization.getId());
-      startVerification(lookupDomain(domainName).getDomain());
       DomainModel d = lookupDomain(domainName);
-      Domain domain = fromModel(d);
-      log.infof("endVerification %s %s %s", domainName, organization.getId(), domain);
-      return Response.accepted().entity(domain).build();
+      if (!d.isVerified()
+          && !DomainVerifier.get().submit(session, realm, organization, d.getDomain())) {
+        throw new ServiceUnavailableException(
+            String.format("Unable to verify %s now, try again later", domainName));
+      }
+      // the result is polled at the domain
+      URI location =
+          session.getContext().getUri().getAbsolutePathBuilder().path("..").build().normalize();
+      return Response.accepted().location(location).entity(fromModel(d)).build();
     } else {
       throw new NotAuthorizedException(
           String.format(
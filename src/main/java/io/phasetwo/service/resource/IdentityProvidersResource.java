@@ -5,6 +5,7 @@ import static io.phasetwo.service.resource.Converters.*;
 import static io.phasetwo.service.resource.OrganizationResourceType.*;
 
 import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.jpa.OrganizationIdentityProviderIndex;
 import jakarta.validation.constraints.*;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -47,9 +48,8 @@ public class IdentityProvidersResource extends OrganizationAdminResource {
   @GET
   @Produces(MediaType.APPLICATION_JSON)
   public Stream<IdentityProviderRepresentation> getIdentityProviders() {
-    return realm
+    return organization
         .getIdentityProvidersStream()
-        .filter(provider -> idpInOrg(provider))
         .map(
             provider ->
                 StripSecretsUtils.strip(ModelToRepresentation.toRepresentation(realm, provider)));
@@ -82,9 +82,8 @@ public class IdentityProvidersResource extends OrganizationAdminResource {
     // Organization can have only one active idp
     // Activating an idp deactivates all others
     if (representation.isEnabled()) {
-      realm
+      organization
           .getIdentityProvidersStream()
-          .filter(provider -> idpInOrg(provider))
           .forEach(
               provider -> {
                 provider.setEnabled(false);
@@ -94,6 +93,11 @@ public class IdentityProvidersResource extends OrganizationAdminResource {
 
     Response resp = getIdpResource().create(representation);
     if (resp.getStatus() == Response.Status.CREATED.getStatusCode()) {
+      // creation publishes no event, unlike updates and removals
+      IdentityProviderModel created = realm.getIdentityProviderByAlias(representation.getAlias());
+      if (created != null) {
+        OrganizationIdentityProviderIndex.get().identityProviderChanged(session, realm, created);
+      }
       return Response.created(
               session
                   .getContext()
@@ -123,11 +127,6 @@ public class IdentityProvidersResource extends OrganizationAdminResource {
     return getIdpResource().importFrom();
   }
 
-  private boolean idpInOrg(IdentityProviderModel provider) {
-    return (provider.getConfig().containsKey(ORG_OWNER_CONFIG_KEY)
-        && organization.getId().equals(provider.getConfig().get(ORG_OWNER_CONFIG_KEY)));
-  }
-
   private org.keycloak.services.resources.admin.IdentityProvidersResource getIdpResource() {
     OrganizationAdminPermissionEvaluator authEval =
         new OrganizationAdminPermissionEvaluator(organization, auth, permissions);
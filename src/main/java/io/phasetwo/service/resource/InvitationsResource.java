@@ -4,21 +4,30 @@ import static io.phasetwo.service.resource.Converters.*;
 import static io.phasetwo.service.resource.OrganizationResourceType.*;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
 import io.phasetwo.service.model.InvitationModel;
 import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.model.jpa.entity.OrganizationEntity;
+import io.phasetwo.service.representation.BulkResponseItem;
 import io.phasetwo.service.representation.Invitation;
 import io.phasetwo.service.representation.InvitationRequest;
+import io.phasetwo.service.util.InvitationEmailQueue;
 import jakarta.mail.internet.AddressException;
 import jakarta.mail.internet.InternetAddress;
+import jakarta.persistence.EntityManager;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -27,18 +36,22 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
-import org.keycloak.email.EmailTemplateProvider;
-import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.hibernate.Session;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.Constants;
-import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public class InvitationsResource extends OrganizationAdminResource {
 
+  private static final int BULK_CHUNK_SIZE = 500;
+
   private final OrganizationModel organization;
 
   public InvitationsResource(OrganizationAdminResource parent, OrganizationModel organization) {
@@ -61,11 +74,15 @@ public class InvitationsResource extends OrganizationAdminResource {
     if (!canSetRoles(invitation.getRoles())) {
       throw new BadRequestException("Unknown role in list.");
     }
+    if (invitation.getExpiresIn() != null && invitation.getExpiresIn() <= 0) {
+      throw new BadRequestException("expiresIn must be positive.");
+    }
     email = email.toLowerCase();
 
     String link = Optional.ofNullable(invitation.getRedirectUri()).orElse("");
 
-    if (organization.getInvitationsByEmail(email).count() > 0) {
+    InvitationModel existing = organization.getInvitationsByEmail(email).findAny().orElse(null);
+    if (existing != null && !existing.isExpired()) {
       log.infof(
           "invitation for %s %s %s already exists. .",
           email, realm.getName(), organization.getId());
@@ -81,6 +98,9 @@ public class InvitationsResource extends OrganizationAdminResource {
           Response.Status.CONFLICT);
     }
 
+    // an expired invitation that wasn't removed yet is replaced
+    if (existing != null) organization.revokeInvitation(existing.getId());
+
     try {
       UserModel inviter = null;
       if (invitation.getInviterId() == null || invitation.getInviterId().equals("")) {
@@ -91,6 +111,9 @@ public class InvitationsResource extends OrganizationAdminResource {
 
       InvitationModel i = organization.addInvitation(email, inviter);
       if (invitation.getRoles() != null) i.setRoles(invitation.getRoles());
+      if (invitation.getExpiresIn() != null) {
+        i.setExpiresAt(new Date(Time.currentTimeMillis() + invitation.getExpiresIn() * 1000L));
+      }
       Invitation o = convertInvitationModelToInvitation(i);
 
       adminEvent
@@ -103,12 +126,7 @@ public class InvitationsResource extends OrganizationAdminResource {
       URI location = session.getContext().getUri().getAbsolutePathBuilder().path(o.getId()).build();
 
       if (invitation.isSend()) {
-        // TODO use inviter
-        try {
-          sendInvitationEmail(email, session, realm, inviter, link);
-        } catch (Exception e) {
-          log.warn("Unable to send invitation email", e);
-        }
+        InvitationEmailQueue.get().enqueue(session, realm, i.getId(), inviter, link);
       }
 
       return Response.created(location).build();
@@ -117,6 +135,187 @@ public class InvitationsResource extends OrganizationAdminResource {
     }
   }
 
+  @POST
+  @Path("bulk")
+  @Consumes(BulkNdjson.NDJSON)
+  @Produces(BulkNdjson.NDJSON)
+  public Response createInvitations(InputStream body) {
+    log.debugf("Bulk create invitations for %s %s", realm.getName(), organization.getId());
+    canManage();
+
+    KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+    String realmId = realm.getId();
+    String orgId = organization.getId();
+    String resourcePath = session.getContext().getUri().getPath();
+    DetachedAdminEvent event = new DetachedAdminEvent(auth, connection);
+    // each chunk is committed in its own transaction
+    return BulkNdjson.stream(
+        body,
+        BULK_CHUNK_SIZE,
+        chunk -> createInvitationChunk(factory, realmId, orgId, event, resourcePath, chunk));
+  }
+
+  private List<BulkResponseItem> createInvitationChunk(
+      KeycloakSessionFactory factory,
+      String realmId,
+      String orgId,
+      DetachedAdminEvent event,
+      String resourcePath,
+      List<String> lines) {
+    List<InvitationRequest> requests = lines.stream().map(l -> parseInvitationRequest(l)).toList();
+    // validating an address doesn't touch the session, so it can run on other threads
+    List<String> emails =
+        requests.parallelStream()
+            .map(
+                r ->
+                    r == null || r.getEmail() == null || !isValidEmail(r.getEmail())
+                        ? null
+                        : r.getEmail().toLowerCase())
+            .toList();
+    List<BulkResponseItem> items = new ArrayList<>();
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          s -> {
+            RealmModel r = s.realms().getRealm(realmId);
+            OrganizationModel org =
+                s.getProvider(OrganizationProvider.class).getOrganizationById(r, orgId);
+            EntityManager em = s.getProvider(JpaConnectionProvider.class).getEntityManager();
+            Set<String> orgRoles =
+                org.getRolesStream().map(role -> role.getName()).collect(Collectors.toSet());
+            Set<String> valid =
+                emails.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+            Map<String, InvitationModel> existing = new HashMap<>();
+            if (!valid.isEmpty()) {
+              org.getInvitationsByEmails(valid).forEach(i -> existing.put(i.getEmail(), i));
+            }
+            Set<String> members = getMemberEmails(em, r, orgId, valid);
+
+            em.unwrap(Session.class).setJdbcBatchSize(BULK_CHUNK_SIZE);
+            // the caller is the inviter unless another one is given
+            UserModel defaultInviter = event.getAuthUser(s);
+            Map<String, UserModel> inviters = new HashMap<>();
+            Set<String> seen = new HashSet<>();
+            List<Invitation> created = new ArrayList<>();
+            for (int n = 0; n < lines.size(); n++) {
+              InvitationRequest request = requests.get(n);
+              String email = emails.get(n);
+              BulkResponseItem item =
+                  new BulkResponseItem().item(request != null ? request : lines.get(n));
+              items.add(item);
+              if (request == null) {
+                item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                    .error("Expected an invitation request");
+                continue;
+              }
+              if (email == null) {
+                item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                    .error("Invalid email: " + request.getEmail());
+                continue;
+              }
+              if (request.getRoles() != null && !orgRoles.containsAll(request.getRoles())) {
+                item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                    .error("Unknown role in list.");
+                continue;
+              }
+              if (request.getExpiresIn() != null && request.getExpiresIn() <= 0) {
+                item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                    .error("expiresIn must be positive.");
+                continue;
+              }
+              InvitationModel previous = existing.get(email);
+              if (!seen.add(email) || (previous != null && !previous.isExpired())) {
+                item.status(Response.Status.CONFLICT.getStatusCode())
+                    .error(String.format("Invitation for %s already exists.", email));
+                continue;
+              }
+              if (members.contains(email)) {
+                item.status(Response.Status.CONFLICT.getStatusCode())
+                    .error(String.format("%s is already a member of this organization.", email));
+                continue;
+              }
+              UserModel inviter = defaultInviter;
+              if (!Strings.isNullOrEmpty(request.getInviterId())) {
+                inviter =
+                    inviters.computeIfAbsent(
+                        request.getInviterId(), id -> s.users().getUserById(r, id));
+                if (inviter == null) {
+                  item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                      .error("Unknown inviter: " + request.getInviterId());
+                  continue;
+                }
+              }
+
+              // an expired invitation that wasn't removed yet is replaced
+              if (previous != null) org.revokeInvitation(previous.getId());
+              InvitationModel i = org.addInvitation(email, inviter);
+              if (request.getRoles() != null) i.setRoles(request.getRoles());
+              if (request.getExpiresIn() != null) {
+                i.setExpiresAt(
+                    new Date(Time.currentTimeMillis() + request.getExpiresIn() * 1000L));
+              }
+              if (request.isSend()) {
+                String link = Optional.ofNullable(request.getRedirectUri()).orElse("");
+                InvitationEmailQueue.get().enqueue(s, r, i.getId(), inviter, link);
+              }
+              Invitation o = convertInvitationModelToInvitation(i);
+              created.add(o);
+              item.status(Response.Status.CREATED.getStatusCode()).item(o);
+            }
+            em.flush();
+
+            if (!created.isEmpty()) {
+              event
+                  .builder(s, r)
+                  .resource(INVITATION.name())
+                  .operation(OperationType.CREATE)
+                  .resourcePath(resourcePath)
+                  .representation(created)
+                  .success();
+            }
+          });
+    } catch (Exception e) {
+      log.warnf(e, "Error creating invitations in %s", orgId);
+      items.clear();
+      for (String l : lines) {
+        items.add(
+            new BulkResponseItem()
+                .status(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode())
+                .error(e.getMessage())
+                .item(l));
+      }
+    }
+    return items;
+  }
+
+  /** Gets the emails of the users with the given emails that are members of the organization. */
+  private static Set<String> getMemberEmails(
+      EntityManager em, RealmModel realm, String orgId, Set<String> emails) {
+    if (emails.isEmpty()) return Collections.emptySet();
+    Map<String, String> emailsById = new HashMap<>();
+    em.createNamedQuery("getRealmUserIdsByEmails", Object[].class)
+        .setParameter("realmId", realm.getId())
+        .setParameter("emails", emails)
+        .getResultStream()
+        .forEach(row -> emailsById.put((String) row[0], (String) row[1]));
+    if (emailsById.isEmpty()) return Collections.emptySet();
+    return em
+        .createNamedQuery("getOrganizationMemberUserIds", String.class)
+        .setParameter("organization", em.getReference(OrganizationEntity.class, orgId))
+        .setParameter("ids", emailsById.keySet())
+        .getResultStream()
+        .map(emailsById::get)
+        .collect(Collectors.toSet());
+  }
+
+  private static InvitationRequest parseInvitationRequest(String line) {
+    try {
+      return JsonSerialization.readValue(line, InvitationRequest.class);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   boolean canSetRoles(Collection<String> roles) {
     if (roles == null || roles.isEmpty()) return true;
     Set<String> orgRoles =
@@ -129,64 +328,6 @@ public class InvitationsResource extends OrganizationAdminResource {
     return true;
   }
 
-  void sendInvitationEmail(
-      String email, KeycloakSession session, RealmModel realm, UserModel inviter, String link)
-      throws Exception {
-    EmailTemplateProvider emailTemplateProvider = session.getProvider(EmailTemplateProvider.class);
-
-    Method sendMethod =
-        FreeMarkerEmailTemplateProvider.class.getDeclaredMethod(
-            "send", String.class, List.class, String.class, Map.class, String.class);
-    sendMethod.setAccessible(true);
-
-    String realmName =
-        Strings.isNullOrEmpty(realm.getDisplayName()) ? realm.getName() : realm.getDisplayName();
-    String orgName =
-        Strings.isNullOrEmpty(organization.getDisplayName())
-            ? organization.getName()
-            : organization.getDisplayName();
-    String inviterName = getInviterName(inviter).orElse("");
-
-    String templateName = "invitation-email.ftl";
-    String subjectKey = "invitationEmailSubject";
-    List<Object> subjectAttributes = ImmutableList.of(realmName, orgName, inviterName);
-    Map<String, Object> bodyAttributes = Maps.newHashMap();
-    bodyAttributes.put("email", email);
-    bodyAttributes.put("realmName", realmName);
-    bodyAttributes.put("orgName", orgName);
-    bodyAttributes.put("inviterName", inviterName);
-    bodyAttributes.put("link", link);
-
-    emailTemplateProvider.setRealm(realm).setUser(user).setAttribute("realmName", realmName);
-
-    sendMethod.invoke(
-        emailTemplateProvider, subjectKey, subjectAttributes, templateName, bodyAttributes, email);
-  }
-
-  Optional<String> getInviterName(UserModel user) {
-    if (user == null) return Optional.empty();
-    StringBuilder o = new StringBuilder();
-    if (!Strings.isNullOrEmpty(user.getFirstName())) {
-      o.append(user.getFirstName());
-    }
-    if (!Strings.isNullOrEmpty(user.getLastName())) {
-      if (o.length() > 0) {
-        o.append(" ");
-      }
-      o.append(user.getLastName());
-    }
-    if (!Strings.isNullOrEmpty(user.getEmail())) {
-      if (o.length() > 0) {
-        o.append(" ").append("(");
-      }
-      o.append(user.getEmail());
-      if (o.length() > user.getEmail().length()) {
-        o.append(")");
-      }
-    }
-    return Optional.ofNullable(Strings.emptyToNull(o.toString()));
-  }
-
   @GET
   @Path("")
   @Produces(MediaType.APPLICATION_JSON)
@@ -195,15 +336,11 @@ public class InvitationsResource extends OrganizationAdminResource {
       @QueryParam("first") Integer firstResult,
       @QueryParam("max") Integer maxResults) {
     log.debugf("Get invitations for %s %s", realm.getName(), organization.getId());
-    Optional<String> search = Optional.ofNullable(searchQuery);
     firstResult = firstResult != null ? firstResult : 0;
     maxResults = maxResults != null ? maxResults : Constants.DEFAULT_MAX_RESULTS;
 
     return organization
-        .getInvitationsStream()
-        .filter(i -> !search.isPresent() || i.getEmail().contains(search.get()))
-        .skip(firstResult)
-        .limit(maxResults)
+        .searchForInvitationsStream(searchQuery, firstResult, maxResults)
         .map(i -> convertInvitationModelToInvitation(i));
   }
 
@@ -212,23 +349,19 @@ public class InvitationsResource extends OrganizationAdminResource {
   public Response removeInvitation(@PathParam("invitationId") String invitationId) {
     canManage();
 
-    // inefficient
-    InvitationModel invitation =
-        organization
-            .getInvitationsStream()
-            .filter(i -> i.getId().equals(invitationId))
-            .findAny()
-            .orElse(null);
+    InvitationModel invitation = organization.getInvitationById(invitationId);
     if (invitation == null)
       throw new NotFoundException(String.format("No invitation with id %s", invitationId));
 
+    // converted before the invitation is removed
+    Invitation o = convertInvitationModelToInvitation(invitation);
     organization.revokeInvitation(invitationId);
 
     adminEvent
         .resource(INVITATION.name())
         .operation(OperationType.DELETE)
-        .resourcePath(session.getContext().getUri(), invitation.getId())
-        .representation(convertInvitationModelToInvitation(invitation))
+        .resourcePath(session.getContext().getUri(), o.getId())
+        .representation(o)
         .success();
 
     return Response.status(204).build();
@@ -6,27 +6,45 @@ import static io.phasetwo.service.resource.Converters.*;
 
 import com.google.common.base.Strings;
 import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
 import io.phasetwo.service.model.OrganizationRoleModel;
 import io.phasetwo.service.representation.BulkResponseItem;
 import io.phasetwo.service.representation.OrganizationRole;
 import io.phasetwo.service.representation.UserRepresentationWithRoles;
+import jakarta.persistence.EntityManager;
 import jakarta.validation.constraints.*;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.util.JsonSerialization;
 
 @JBossLog
 public class MembersResource extends OrganizationAdminResource {
 
+  private static final int BULK_CHUNK_SIZE = 500;
+
   private final OrganizationModel organization;
 
   public MembersResource(OrganizationAdminResource parent,
@@ -128,6 +146,165 @@ public class MembersResource extends OrganizationAdminResource {
     }
   }
 
+  @POST
+  @Path("bulk")
+  @Consumes(BulkNdjson.NDJSON)
+  @Produces(BulkNdjson.NDJSON)
+  public Response addMembers(InputStream body) {
+    log.debugf("Bulk add members for %s %s", realm.getName(),
+               organization.getId());
+    canManage();
+
+    KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+    String realmId = realm.getId();
+    String orgId = organization.getId();
+    String resourcePath = session.getContext().getUri().getPath();
+    DetachedAdminEvent event = new DetachedAdminEvent(auth, connection);
+    // each chunk is committed in its own transaction
+    return BulkNdjson.stream(
+        body, BULK_CHUNK_SIZE,
+        chunk -> addMemberChunk(factory, realmId, orgId, event, resourcePath,
+                                chunk));
+  }
+
+  private List<BulkResponseItem>
+  addMemberChunk(KeycloakSessionFactory factory, String realmId, String orgId,
+                 DetachedAdminEvent event, String resourcePath,
+                 List<String> lines) {
+    List<String> values = lines.stream().map(l -> parseBulkItem(l)).toList();
+    List<BulkResponseItem> items = new ArrayList<>();
+    try {
+      KeycloakModelUtils.runJobInTransaction(factory, s -> {
+        RealmModel r = s.realms().getRealm(realmId);
+        OrganizationModel org = s.getProvider(OrganizationProvider.class)
+                                    .getOrganizationById(r, orgId);
+        Map<String, String> resolved = resolveUsers(s, r, values);
+        Set<String> serviceAccounts =
+            getServiceAccountIds(s, r, resolved.values());
+        Set<String> userIds = new HashSet<>(resolved.values());
+        userIds.removeAll(serviceAccounts);
+        Set<String> added = org.grantMemberships(userIds);
+        for (int i = 0; i < values.size(); i++) {
+          String value = values.get(i);
+          String userId = value == null ? null : resolved.get(value);
+          BulkResponseItem item =
+              new BulkResponseItem().item(value != null ? value : lines.get(i));
+          if (value == null) {
+            item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                .error("Expected a user id or email");
+          } else if (userId == null) {
+            item.status(Response.Status.NOT_FOUND.getStatusCode())
+                .error("User not found");
+          } else if (serviceAccounts.contains(userId)) {
+            item.status(Response.Status.BAD_REQUEST.getStatusCode())
+                .error("Service accounts cannot be members");
+          } else if (added.contains(userId)) {
+            item.status(Response.Status.CREATED.getStatusCode());
+          } else {
+            item.status(Response.Status.OK.getStatusCode());
+          }
+          items.add(item);
+        }
+        if (!added.isEmpty()) {
+          event.builder(s, r)
+              .resource(ORGANIZATION_MEMBERSHIP.name())
+              .operation(OperationType.CREATE)
+              .resourcePath(resourcePath)
+              .representation(added)
+              .success();
+        }
+      });
+    } catch (Exception e) {
+      log.warnf(e, "Error adding members to %s", orgId);
+      items.clear();
+      for (String l : lines) {
+        items.add(new BulkResponseItem()
+                      .status(Response.Status.INTERNAL_SERVER_ERROR
+                                  .getStatusCode())
+                      .error(e.getMessage())
+                      .item(l));
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Resolves user ids and emails to user ids, with one query for the ids and
+   * one for the emails. Values that are not found that way (e.g. federated
+   * users that are not imported yet) are looked up through the user provider.
+   */
+  private static Map<String, String>
+  resolveUsers(KeycloakSession s, RealmModel r, List<String> values) {
+    Set<String> ids = new HashSet<>();
+    Set<String> emails = new HashSet<>();
+    values.stream().filter(Objects::nonNull).forEach(v -> {
+      if (v.contains("@"))
+        emails.add(v);
+      else
+        ids.add(v);
+    });
+    EntityManager em =
+        s.getProvider(JpaConnectionProvider.class).getEntityManager();
+    Map<String, String> resolved = new HashMap<>();
+    if (!ids.isEmpty()) {
+      em.createNamedQuery("getRealmUserIdsByIds", String.class)
+          .setParameter("realmId", r.getId())
+          .setParameter("ids", ids)
+          .getResultStream()
+          .forEach(id -> resolved.put(id, id));
+    }
+    if (!emails.isEmpty()) {
+      em.createNamedQuery("getRealmUserIdsByEmails", Object[].class)
+          .setParameter("realmId", r.getId())
+          .setParameter("emails", emails)
+          .getResultStream()
+          .forEach(row -> resolved.put((String)row[1], (String)row[0]));
+    }
+    ids.stream().filter(id -> !resolved.containsKey(id)).forEach(id -> {
+      UserModel u = s.users().getUserById(r, id);
+      if (u != null) resolved.put(id, u.getId());
+    });
+    emails.stream().filter(e -> !resolved.containsKey(e)).forEach(e -> {
+      UserModel u = s.users().getUserByEmail(r, e);
+      if (u != null) resolved.put(e, u.getId());
+    });
+    return resolved;
+  }
+
+  /** Gets the ids of the service account users among the user ids. */
+  private static Set<String> getServiceAccountIds(KeycloakSession s,
+                                                  RealmModel r,
+                                                  Collection<String> ids) {
+    if (ids.isEmpty()) return Set.of();
+    EntityManager em =
+        s.getProvider(JpaConnectionProvider.class).getEntityManager();
+    return new HashSet<>(
+        em.createNamedQuery("getRealmServiceAccountIdsByIds", String.class)
+            .setParameter("realmId", r.getId())
+            .setParameter("ids", ids)
+            .getResultList());
+  }
+
+  /**
+   * Reads an NDJSON line, which is either a JSON string or a bare user id or
+   * email. Emails are lower cased, as Keycloak stores them.
+   *
+   * @return the value, or null if the line is not valid
+   */
+  private static String parseBulkItem(String line) {
+    String value = line;
+    if (line.startsWith("\"")) {
+      try {
+        value = JsonSerialization.readValue(line, String.class);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    if (Strings.isNullOrEmpty(value) || value.isBlank()) return null;
+    value = value.trim();
+    return value.contains("@") ? value.toLowerCase() : value;
+  }
+
   @GET
   @Path("/with-roles")
   @Produces(MediaType.APPLICATION_JSON)
@@ -140,18 +317,23 @@ public class MembersResource extends OrganizationAdminResource {
     firstResult = firstResult != null ? firstResult : 0;
     maxResults =
         maxResults != null ? maxResults : Constants.DEFAULT_MAX_RESULTS;
-    return organization
-        .searchForMembersStream(searchQuery, firstResult, maxResults)
-        .map(m -> {
-          UserRepresentation user = toRepresentation(session, realm, m);
-          List<OrganizationRole> roles =
-              organization.getRolesStream()
-                  .filter(r -> r.hasRole(m))
-                  .map(r -> convertOrganizationRole(r))
-                  .toList();
-          return new UserRepresentationWithRoles().user(user).organizationRoles(
-              roles);
-        });
+    List<UserModel> members =
+        organization
+            .searchForMembersStream(searchQuery, firstResult, maxResults)
+            .toList();
+    // the role mappings of the whole page are fetched at once, rather than
+    // loading the mappings of each role for each member
+    Map<String, Set<String>> memberRoles =
+        organization.getMemberRoleNames(members);
+    List<OrganizationRole> roles = organization.getRolesStream()
+                                       .map(r -> convertOrganizationRole(r))
+                                       .toList();
+    return members.stream().map(m -> {
+      UserRepresentation user = toRepresentation(session, realm, m);
+      Set<String> names = memberRoles.getOrDefault(m.getId(), Set.of());
+      return new UserRepresentationWithRoles().user(user).organizationRoles(
+          roles.stream().filter(r -> names.contains(r.getName())).toList());
+    });
   }
 
   private void canManage() {
@@ -10,6 +10,9 @@ import io.phasetwo.service.Orgs;
 import io.phasetwo.service.model.OrganizationModel;
 import io.phasetwo.service.model.OrganizationProvider;
 import io.phasetwo.service.model.OrganizationRoleModel;
+import io.phasetwo.service.model.jpa.OrganizationIdentityProviderIndex;
+import io.phasetwo.service.model.jpa.OrganizationNameIndex;
+import java.util.stream.Collectors;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config;
 import org.keycloak.models.AdminRoles;
@@ -61,6 +64,10 @@ public class OrganizationResourceProviderFactory implements RealmResourceProvide
             realmPostCreate((RealmModel.RealmPostCreateEvent) event);
           } else if (event instanceof PostMigrationEvent) {
             log.debug("PostMigrationEvent");
+            KeycloakModelUtils.runJobInTransaction(
+                factory, OrganizationNameIndex.get()::registerListener);
+            KeycloakModelUtils.runJobInTransaction(
+                factory, OrganizationIdentityProviderIndex.get()::registerListener);
             if (System.getenv("KC_ORGS_SKIP_MIGRATION") == null) {
               log.info("initializing organization roles following migration");
               KeycloakModelUtils.runJobInTransaction(factory, this::initRoles);
@@ -77,6 +84,15 @@ public class OrganizationResourceProviderFactory implements RealmResourceProvide
           } else if (event instanceof OrganizationModel.OrganizationRemovedEvent) {
             log.debug("OrganizationRemovedEvent");
             organizationRemoved((OrganizationModel.OrganizationRemovedEvent) event);
+          } else if (event instanceof OrganizationModel.OrganizationRenamedEvent) {
+            log.debug("OrganizationRenamedEvent");
+            organizationRenamed((OrganizationModel.OrganizationRenamedEvent) event);
+          } else if (event instanceof RealmModel.IdentityProviderUpdatedEvent) {
+            log.debug("IdentityProviderUpdatedEvent");
+            identityProviderUpdated((RealmModel.IdentityProviderUpdatedEvent) event);
+          } else if (event instanceof RealmModel.IdentityProviderRemovedEvent) {
+            log.debug("IdentityProviderRemovedEvent");
+            identityProviderRemoved((RealmModel.IdentityProviderRemovedEvent) event);
           }
         });
   }
@@ -159,25 +175,15 @@ public class OrganizationResourceProviderFactory implements RealmResourceProvide
   }
 
   private void userRemoved(UserModel.UserRemovedEvent event) {
-    OrganizationProvider orgs = event.getKeycloakSession().getProvider(OrganizationProvider.class);
-    orgs.getUserOrganizationsStream(event.getRealm(), event.getUser())
-        .forEach(
-            org -> {
-              try {
-                org.revokeMembership(event.getUser());
-                org.getRolesStream()
-                    .forEach(
-                        r -> {
-                          if (r.hasRole(event.getUser())) r.revokeRole(event.getUser());
-                        });
-              } catch (Exception e) {
-                log.warn("error removing user from org", e);
-              }
-            });
+    event
+        .getKeycloakSession()
+        .getProvider(OrganizationProvider.class)
+        .preRemove(event.getRealm(), event.getUser());
   }
 
   private void organizationCreation(OrganizationModel.OrganizationCreationEvent event) {
     OrganizationModel org = event.getOrganization();
+    OrganizationNameIndex.get().organizationChanged(event.getKeycloakSession(), org);
 
     // setup default roles
     for (String role : OrganizationAdminAuth.DEFAULT_ORG_ROLES) {
@@ -202,16 +208,25 @@ public class OrganizationResourceProviderFactory implements RealmResourceProvide
     }
   }
 
+  private void organizationRenamed(OrganizationModel.OrganizationRenamedEvent event) {
+    OrganizationNameIndex.get()
+        .organizationChanged(event.getKeycloakSession(), event.getOrganization());
+  }
+
   private void organizationRemoved(OrganizationModel.OrganizationRemovedEvent event) {
     // TODO anything else to do? does cascade take care of it?
 
     // remove the idp associations for this org
     OrganizationModel org = event.getOrganization();
+    OrganizationNameIndex.get().organizationRemoved(event.getKeycloakSession(), org);
     try {
+      RealmModel realm = event.getRealm();
       org.getIdentityProvidersStream()
+          .collect(Collectors.toList())
           .forEach(
               idp -> {
                 idp.getConfig().remove(Orgs.ORG_OWNER_CONFIG_KEY);
+                realm.updateIdentityProvider(idp);
               });
     } catch (Exception e) {
       log.warnf(
@@ -243,6 +258,20 @@ public class OrganizationResourceProviderFactory implements RealmResourceProvide
     }
   }
 
+  private void identityProviderUpdated(RealmModel.IdentityProviderUpdatedEvent event) {
+    OrganizationIdentityProviderIndex.get()
+        .identityProviderChanged(
+            event.getKeycloakSession(), event.getRealm(), event.getUpdatedIdentityProvider());
+  }
+
+  private void identityProviderRemoved(RealmModel.IdentityProviderRemovedEvent event) {
+    OrganizationIdentityProviderIndex.get()
+        .identityProviderRemoved(
+            event.getKeycloakSession(),
+            event.getRealm(),
+            event.getRemovedIdentityProvider().getAlias());
+  }
+
   public static String getDefaultAdminUsername(OrganizationModel org) {
     return String.format("org-admin-%s", org.getId());
   }
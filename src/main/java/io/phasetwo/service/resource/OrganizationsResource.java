@@ -6,20 +6,26 @@ import static io.phasetwo.service.resource.OrganizationResourceType.*;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.jpa.OrganizationNameIndex;
 import io.phasetwo.service.representation.Organization;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.*;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.events.admin.OperationType;
 import org.keycloak.models.Constants;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.util.JsonSerialization;
 import org.keycloak.utils.SearchQueryUtils;
 
 @JBossLog
@@ -66,14 +72,17 @@ public class OrganizationsResource extends OrganizationAdminResource {
     return Response.ok(claim).build();
   }
 
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
   @GET
   @Path("")
   @Produces(MediaType.APPLICATION_JSON)
-  public Stream<Organization> listOrgs(
+  public Response listOrgs(
       @QueryParam("search") String search,
       @QueryParam("first") Integer firstResult,
       @QueryParam("max") Integer maxResults,
-      @QueryParam("q") String searchQuery) {
+      @QueryParam("q") String searchQuery,
+      @QueryParam("cursor") String cursor) {
     firstResult = firstResult != null ? firstResult : 0;
     maxResults =
         (maxResults != null && maxResults <= Constants.DEFAULT_MAX_RESULTS)
@@ -81,8 +90,8 @@ public class OrganizationsResource extends OrganizationAdminResource {
             : Constants.DEFAULT_MAX_RESULTS;
 
     log.debugf(
-        "listOrgs realm: %s, search: %s, query: %s, first: %d, max: %d",
-        realm.getName(), search, searchQuery, firstResult, maxResults);
+        "listOrgs realm: %s, search: %s, query: %s, first: %d, max: %d, cursor: %s",
+        realm.getName(), search, searchQuery, firstResult, maxResults, cursor);
 
     Map<String, String> searchAttributes =
         searchQuery == null ? Maps.newHashMap() : SearchQueryUtils.getFields(searchQuery);
@@ -90,14 +99,60 @@ public class OrganizationsResource extends OrganizationAdminResource {
       searchAttributes.put("name", search.trim());
     }
 
-    return orgs.searchForOrganizationStream(
-            realm,
-            searchAttributes,
-            firstResult,
-            maxResults,
-            auth.hasViewOrgs() ? Optional.empty() : Optional.of(auth.getUser()))
-        .filter(m -> (auth.hasViewOrgs() || auth.hasOrgViewOrg(m)))
-        .map(m -> convertOrganizationModelToOrganization(m));
+    Optional<UserModel> member =
+        auth.hasViewOrgs() ? Optional.empty() : Optional.of(auth.getUser());
+    // with a cursor, seek past the last organization of the previous page and ignore first
+    List<OrganizationModel> page;
+    if (cursor != null) {
+      String[] after = decodeCursor(cursor);
+      page =
+          orgs.searchForOrganizationStreamAfter(
+                  realm, searchAttributes, after[0], after[1], maxResults, member)
+              .collect(Collectors.toList());
+    } else {
+      page =
+          orgs.searchForOrganizationStream(
+                  realm, searchAttributes, firstResult, maxResults, member)
+              .collect(Collectors.toList());
+    }
+
+    List<Organization> results =
+        page.stream()
+            .filter(m -> (auth.hasViewOrgs() || auth.hasOrgViewOrg(m)))
+            .map(m -> convertOrganizationModelToOrganization(m))
+            .collect(Collectors.toList());
+
+    Response.ResponseBuilder response = Response.ok(results);
+    // a full page may have more after it. the cursor is taken before the permission filter so
+    // that filtered organizations are not fetched again
+    if (page.size() == maxResults && maxResults > 0) {
+      OrganizationModel last = page.get(page.size() - 1);
+      response.header(NEXT_CURSOR_HEADER, encodeCursor(last.getName(), last.getId()));
+    }
+    return response.build();
+  }
+
+  private static String encodeCursor(String name, String id) {
+    try {
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(JsonSerialization.writeValueAsBytes(new String[] {name, id}));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to encode cursor", e);
+    }
+  }
+
+  private static String[] decodeCursor(String cursor) {
+    try {
+      String[] after =
+          JsonSerialization.readValue(Base64.getUrlDecoder().decode(cursor), String[].class);
+      if (after == null || after.length != 2 || after[0] == null || after[1] == null) {
+        throw new BadRequestException("Invalid cursor");
+      }
+      return after;
+    } catch (IllegalArgumentException | IOException e) {
+      throw new BadRequestException("Invalid cursor");
+    }
   }
 
   @GET
@@ -111,6 +166,30 @@ public class OrganizationsResource extends OrganizationAdminResource {
     return orgs.getOrganizationsCount(realm, searchQuery);
   }
 
+  @GET
+  @Path("suggest")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Stream<Organization> suggestOrgs(
+      @QueryParam("prefix") String prefix, @QueryParam("max") Integer maxResults) {
+    if (!auth.hasViewOrgs()) {
+      throw new NotAuthorizedException("Insufficient permission to list organizations.");
+    }
+    if (prefix == null || prefix.isBlank()) {
+      throw new BadRequestException("prefix is required");
+    }
+    maxResults =
+        (maxResults != null && maxResults <= Constants.DEFAULT_MAX_RESULTS)
+            ? maxResults
+            : Constants.DEFAULT_MAX_RESULTS;
+    return OrganizationNameIndex.get().suggest(session, realm, prefix.trim(), maxResults).stream()
+        .map(
+            e ->
+                new Organization()
+                    .id(e.getId())
+                    .name(e.getName())
+                    .displayName(e.getDisplayName()));
+  }
+
   @POST
   @Path("")
   @Consumes(MediaType.APPLICATION_JSON)
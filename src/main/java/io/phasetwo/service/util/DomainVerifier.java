@@ -0,0 +1,301 @@
+package io.phasetwo.service.util;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.phasetwo.service.model.DomainModel;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ExtendedResolver;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TXTRecord;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.lookup.LookupResult;
+import org.xbill.DNS.lookup.LookupSession;
+import org.xbill.DNS.lookup.NoSuchDomainException;
+import org.xbill.DNS.lookup.NoSuchRRSetException;
+
+/**
+ * Verifies domain ownership in the background. Domains to verify are queued, and a dispatcher
+ * takes them in batches and resolves their TXT records concurrently, with a shared resolver and a
+ * shared cache that keeps positive and negative answers for their TTL. The domains that are
+ * verified in a batch are marked in one transaction. The status of recent verifications is kept
+ * in the cluster-wide single-use object store, so that it can be polled on any node.
+ */
+@JBossLog
+public class DomainVerifier {
+
+  public static final String RECORD_KEY = "_org-domain-ownership";
+
+  public enum Status {
+    PENDING,
+    VERIFIED,
+    FAILED
+  }
+
+  /** The outcome of looking up the ownership record of a domain. */
+  public enum Result {
+    FOUND,
+    NOT_FOUND,
+    ERROR
+  }
+
+  private static final int MAX_PENDING = 10000;
+  // so that a record that was just added is seen soon, even if its zone has a long negative TTL
+  private static final int MAX_NEGATIVE_TTL_SECONDS = 60;
+  private static final long STATUS_LIFESPAN_SECONDS = 3600;
+  // so that a domain left pending by a node that went away can be submitted again
+  private static final long PENDING_LIFESPAN_SECONDS = 600;
+  private static final String STATUS_KEY_PREFIX = "domain-verification.";
+  private static final String STATUS_NOTE = "status";
+
+  private static final DomainVerifier INSTANCE = new DomainVerifier();
+
+  public static DomainVerifier get() {
+    return INSTANCE;
+  }
+
+  /** Gets the value the TXT record of the domain must have to verify it for the organization. */
+  public static String getRecordValue(String domainName, String orgId) {
+    return Hashing.sha256()
+        .hashString(String.format("%s %s", domainName, orgId), StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  public static String getRecordKey(String domainName) {
+    return String.format("%s.%s", RECORD_KEY, domainName);
+  }
+
+  private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+  // the keys of the requests queued on this node and not yet verified
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+  private KeycloakSessionFactory factory;
+  private volatile LookupSession lookupSession;
+  private ExecutorService dispatcher;
+  private int parallelism;
+  private long timeoutMillis;
+
+  /**
+   * Starts verifying queued domains, at most {@code parallelism} at a time, each lookup giving up
+   * after the timeout. The resolver is {@code host[:port]}, or the system resolvers if empty.
+   */
+  public synchronized void start(
+      KeycloakSessionFactory factory, int parallelism, Duration timeout, String resolverAddress) {
+    if (dispatcher != null) return;
+    this.factory = factory;
+    this.parallelism = parallelism;
+    this.timeoutMillis = timeout.toMillis();
+    Resolver resolver = createResolver(resolverAddress);
+    resolver.setTimeout(timeout);
+    org.xbill.DNS.Cache cache = new org.xbill.DNS.Cache(DClass.IN);
+    cache.setMaxNCache(MAX_NEGATIVE_TTL_SECONDS);
+    lookupSession = LookupSession.builder().resolver(resolver).cache(cache).build();
+    dispatcher =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("domain-verifier")
+                .setDaemon(true)
+                .build());
+    dispatcher.execute(this::dispatch);
+  }
+
+  public synchronized void stop() {
+    if (dispatcher == null) return;
+    dispatcher.shutdownNow();
+    dispatcher = null;
+    lookupSession = null;
+    pending.clear();
+    inFlight.clear();
+  }
+
+  /**
+   * Queues a domain of an organization for verification. Returns false if the verifier isn't
+   * running or too many domains are already waiting.
+   */
+  public boolean submit(
+      KeycloakSession session,
+      RealmModel realm,
+      OrganizationModel organization,
+      String domainName) {
+    Request request = new Request(realm.getId(), organization.getId(), domainName);
+    if (getStatus(session, request) == Status.PENDING) return true;
+    KeycloakSessionFactory factory;
+    synchronized (this) {
+      if (dispatcher == null) return false;
+      if (!inFlight.add(request.key())) return true;
+      factory = this.factory;
+    }
+    // committed before the offer, so that it can't replace the result of a fast dispatcher
+    KeycloakModelUtils.runJobInTransaction(factory, s -> putStatus(s, request, Status.PENDING));
+    if (pending.offer(request)) return true;
+    inFlight.remove(request.key());
+    KeycloakModelUtils.runJobInTransaction(
+        factory, s -> s.singleUseObjects().remove(request.key()));
+    return false;
+  }
+
+  /** Gets the status of the last verification of the domain, if there is one. */
+  public Status getStatus(
+      KeycloakSession session,
+      RealmModel realm,
+      OrganizationModel organization,
+      String domainName) {
+    return getStatus(session, new Request(realm.getId(), organization.getId(), domainName));
+  }
+
+  private static Status getStatus(KeycloakSession session, Request request) {
+    Map<String, String> notes = session.singleUseObjects().get(request.key());
+    return notes == null || !notes.containsKey(STATUS_NOTE)
+        ? null
+        : Status.valueOf(notes.get(STATUS_NOTE));
+  }
+
+  private static void putStatus(KeycloakSession session, Request request, Status status) {
+    long lifespan = status == Status.PENDING ? PENDING_LIFESPAN_SECONDS : STATUS_LIFESPAN_SECONDS;
+    session
+        .singleUseObjects()
+        .put(request.key(), lifespan, ImmutableMap.of(STATUS_NOTE, status.name()));
+  }
+
+  private void dispatch() {
+    while (!Thread.currentThread().isInterrupted()) {
+      List<Request> batch = new ArrayList<>();
+      try {
+        batch.add(pending.take());
+        pending.drainTo(batch, parallelism - 1);
+        verify(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        log.warn("Error during DNS verification", e);
+      } finally {
+        batch.forEach(r -> inFlight.remove(r.key()));
+      }
+    }
+  }
+
+  private void verify(List<Request> batch) {
+    List<CompletableFuture<Result>> lookups =
+        batch.stream().map(r -> lookup(r.domainName, r.orgId)).toList();
+    CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new)).join();
+    List<Status> statuses =
+        lookups.stream()
+            .map(l -> l.join() == Result.FOUND ? Status.VERIFIED : Status.FAILED)
+            .toList();
+    // the domains and their statuses in one transaction
+    KeycloakModelUtils.runJobInTransaction(
+        factory,
+        session -> {
+          for (int n = 0; n < batch.size(); n++) {
+            if (statuses.get(n) == Status.VERIFIED) markVerified(session, batch.get(n));
+            putStatus(session, batch.get(n), statuses.get(n));
+          }
+        });
+    log.debugf(
+        "Verified %d of %d domains",
+        statuses.stream().filter(Status.VERIFIED::equals).count(),
+        batch.size());
+  }
+
+  /**
+   * Looks up the ownership record of a domain of an organization with the shared resolver and
+   * cache. A lookup that times out or fails for any other reason than the record not existing is an
+   * {@link Result#ERROR}.
+   */
+  public CompletableFuture<Result> lookup(String domainName, String orgId) {
+    LookupSession lookupSession = this.lookupSession;
+    if (lookupSession == null) return CompletableFuture.completedFuture(Result.ERROR);
+    String recordKey = getRecordKey(domainName);
+    String expected = getRecordValue(domainName, orgId);
+    Name name;
+    try {
+      name = Name.fromString(recordKey, Name.root);
+    } catch (TextParseException e) {
+      log.debugf("Invalid domain name %s", domainName);
+      return CompletableFuture.completedFuture(Result.NOT_FOUND);
+    }
+    return lookupSession
+        .lookupAsync(name, Type.TXT)
+        .toCompletableFuture()
+        .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+        .thenApply(result -> hasRecordValue(result, expected) ? Result.FOUND : Result.NOT_FOUND)
+        .exceptionally(
+            e -> {
+              Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+              if (cause instanceof NoSuchDomainException || cause instanceof NoSuchRRSetException) {
+                return Result.NOT_FOUND;
+              }
+              log.debugf("Unable to look up %s: %s", recordKey, cause.toString());
+              return Result.ERROR;
+            });
+  }
+
+  private static boolean hasRecordValue(LookupResult result, String expected) {
+    return result.getRecords().stream()
+        .filter(TXTRecord.class::isInstance)
+        .map(r -> String.join("", ((TXTRecord) r).getStrings()))
+        .anyMatch(expected::equals);
+  }
+
+  private static void markVerified(KeycloakSession session, Request request) {
+    RealmModel realm = session.realms().getRealm(request.realmId);
+    if (realm == null) return;
+    OrganizationModel org =
+        session.getProvider(OrganizationProvider.class).getOrganizationById(realm, request.orgId);
+    DomainModel domain = org == null ? null : org.getDomain(request.domainName);
+    if (domain != null && !domain.isVerified()) {
+      log.infof("verified domain %s for %s", request.domainName, request.orgId);
+      domain.setVerified(true);
+    }
+  }
+
+  private static Resolver createResolver(String address) {
+    if (Strings.isNullOrEmpty(address)) return new ExtendedResolver();
+    HostAndPort hostAndPort = HostAndPort.fromString(address).withDefaultPort(53);
+    return new SimpleResolver(
+        new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort()));
+  }
+
+  private static class Request {
+    private final String realmId;
+    private final String orgId;
+    private final String domainName;
+
+    Request(String realmId, String orgId, String domainName) {
+      this.realmId = realmId;
+      this.orgId = orgId;
+      this.domainName = domainName;
+    }
+
+    String key() {
+      return STATUS_KEY_PREFIX + realmId + "." + orgId + "." + domainName;
+    }
+  }
+}
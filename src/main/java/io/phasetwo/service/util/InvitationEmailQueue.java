@@ -0,0 +1,333 @@
+package io.phasetwo.service.util;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.phasetwo.service.model.OrganizationModel;
+import io.phasetwo.service.model.OrganizationProvider;
+import io.phasetwo.service.model.jpa.entity.InvitationEmailEntity;
+import io.phasetwo.service.model.jpa.entity.InvitationEntity;
+import jakarta.persistence.EntityManager;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.email.EmailTemplateProvider;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Durable queue of invitation emails. An email is stored in the transaction that creates the
+ * invitation, and sent after it commits by a bounded pool of workers, so that the request doesn't
+ * wait for the mail server. Every node polls for emails that are due, and an email is claimed
+ * before it is sent, so that it is only sent by one node. Failed emails are retried with an
+ * exponential backoff, and given up on after {@link #MAX_ATTEMPTS} attempts.
+ */
+@JBossLog
+public class InvitationEmailQueue {
+
+  private static final int MAX_ATTEMPTS = 8;
+  private static final long BASE_BACKOFF_SECONDS = 30;
+  private static final long MAX_BACKOFF_SECONDS = 3600;
+  // longer than a send can take, so that a claimed email is only sent again if its node died
+  private static final long LEASE_SECONDS = 300;
+  private static final long POLL_INTERVAL_SECONDS = 30;
+  private static final int POLL_BATCH_SIZE = 50;
+
+  private static final String TEMPLATE_NAME = "invitation-email.ftl";
+  private static final String SUBJECT_KEY = "invitationEmailSubject";
+
+  // the provider only has a public method that sends to the email of a user, and invitees may not
+  // be users yet
+  private static final Method SEND_METHOD;
+
+  static {
+    try {
+      SEND_METHOD =
+          FreeMarkerEmailTemplateProvider.class.getDeclaredMethod(
+              "send", String.class, List.class, String.class, Map.class, String.class);
+      SEND_METHOD.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static final InvitationEmailQueue INSTANCE = new InvitationEmailQueue();
+
+  public static InvitationEmailQueue get() {
+    return INSTANCE;
+  }
+
+  private KeycloakSessionFactory factory;
+  private ScheduledExecutorService poller;
+  private ThreadPoolExecutor workers;
+
+  /** Starts polling for due emails and sending them with the given number of workers. */
+  public synchronized void start(KeycloakSessionFactory factory, int workerCount) {
+    if (poller != null) return;
+    this.factory = factory;
+    workers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(POLL_BATCH_SIZE * 2),
+            new ThreadFactoryBuilder()
+                .setNameFormat("invitation-email-%d")
+                .setDaemon(true)
+                .build());
+    poller =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("invitation-email-poller")
+                .setDaemon(true)
+                .build());
+    poller.scheduleWithFixedDelay(
+        this::poll, POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if (poller == null) return;
+    poller.shutdownNow();
+    workers.shutdownNow();
+    poller = null;
+    workers = null;
+  }
+
+  /**
+   * Adds an invitation email to the queue in the current transaction. It is sent once the
+   * transaction commits.
+   */
+  public void enqueue(
+      KeycloakSession session,
+      RealmModel realm,
+      String invitationId,
+      UserModel inviter,
+      String link) {
+    InvitationEmailEntity e = new InvitationEmailEntity();
+    e.setId(KeycloakModelUtils.generateId());
+    e.setRealmId(realm.getId());
+    e.setInvitationId(invitationId);
+    e.setInviterId(inviter == null ? null : inviter.getId());
+    e.setLink(link);
+    e.setAttempts(0);
+    e.setNextAttemptAt(new Date(Time.currentTimeMillis()));
+    getEntityManager(session).persist(e);
+
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                submit(e.getId());
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  private void poll() {
+    try {
+      List<String> ids =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              factory,
+              session ->
+                  getEntityManager(session)
+                      .createNamedQuery("getDueInvitationEmailIds", String.class)
+                      .setParameter("now", new Date(Time.currentTimeMillis()))
+                      .setMaxResults(POLL_BATCH_SIZE)
+                      .getResultList());
+      for (String id : ids) {
+        if (!submit(id)) break;
+      }
+    } catch (Exception e) {
+      log.warn("Unable to poll for invitation emails", e);
+    }
+  }
+
+  // an email that isn't accepted by the workers stays due, and is found by a later poll
+  private synchronized boolean submit(String id) {
+    if (workers == null) return false;
+    try {
+      workers.execute(() -> process(id));
+      return true;
+    } catch (RejectedExecutionException e) {
+      log.debugf("Invitation email workers are busy, deferring %s", id);
+      return false;
+    }
+  }
+
+  private void process(String id) {
+    InvitationEmailEntity email =
+        KeycloakModelUtils.runJobInTransactionWithResult(factory, session -> claim(session, id));
+    if (email == null) return;
+    try {
+      KeycloakModelUtils.runJobInTransaction(factory, session -> deliver(session, email));
+    } catch (Exception e) {
+      KeycloakModelUtils.runJobInTransaction(factory, session -> retry(session, email, e));
+    }
+  }
+
+  // the claim only succeeds for one node, as it moves the next attempt past the lease
+  private InvitationEmailEntity claim(KeycloakSession session, String id) {
+    EntityManager em = getEntityManager(session);
+    long now = Time.currentTimeMillis();
+    int claimed =
+        em.createNamedQuery("claimInvitationEmail")
+            .setParameter("id", id)
+            .setParameter("now", new Date(now))
+            .setParameter("leaseUntil", new Date(now + TimeUnit.SECONDS.toMillis(LEASE_SECONDS)))
+            .executeUpdate();
+    return claimed == 1 ? em.find(InvitationEmailEntity.class, id) : null;
+  }
+
+  private void deliver(KeycloakSession session, InvitationEmailEntity email) {
+    EntityManager em = getEntityManager(session);
+    RealmModel realm = session.realms().getRealm(email.getRealmId());
+    InvitationEntity invitation = em.find(InvitationEntity.class, email.getInvitationId());
+    OrganizationModel org =
+        realm == null || invitation == null || isExpired(invitation)
+            ? null
+            : session
+                .getProvider(OrganizationProvider.class)
+                .getOrganizationById(realm, invitation.getOrganization().getId());
+    EmailTemplateProvider provider = session.getProvider(EmailTemplateProvider.class);
+    if (org == null) {
+      log.debugf("Dropping invitation email %s for a removed invitation", email.getId());
+    } else if (!(provider instanceof FreeMarkerEmailTemplateProvider)) {
+      // not something that a retry can fix
+      log.errorf(
+          "Dropping invitation email %s, as %s is not a FreeMarkerEmailTemplateProvider",
+          email.getId(), provider == null ? null : provider.getClass().getName());
+    } else {
+      session.getContext().setRealm(realm);
+      UserModel inviter =
+          email.getInviterId() == null
+              ? null
+              : session.users().getUserById(realm, email.getInviterId());
+      send(
+          (FreeMarkerEmailTemplateProvider) provider,
+          realm,
+          org,
+          invitation.getEmail(),
+          inviter,
+          email.getLink());
+    }
+    InvitationEmailEntity managed = em.find(InvitationEmailEntity.class, email.getId());
+    if (managed != null) em.remove(managed);
+  }
+
+  private void retry(KeycloakSession session, InvitationEmailEntity email, Exception cause) {
+    EntityManager em = getEntityManager(session);
+    InvitationEmailEntity managed = em.find(InvitationEmailEntity.class, email.getId());
+    if (managed == null) return;
+    int attempts = managed.getAttempts() + 1;
+    if (attempts >= MAX_ATTEMPTS) {
+      log.errorf(
+          cause, "Giving up on invitation email %s after %d attempts", email.getId(), attempts);
+      em.remove(managed);
+      return;
+    }
+    long backoff = Math.min(MAX_BACKOFF_SECONDS, BASE_BACKOFF_SECONDS << (attempts - 1));
+    log.warnf(
+        "Unable to send invitation email %s, retrying in %d seconds: %s",
+        email.getId(), backoff, cause.getMessage());
+    managed.setAttempts(attempts);
+    managed.setNextAttemptAt(
+        new Date(Time.currentTimeMillis() + TimeUnit.SECONDS.toMillis(backoff)));
+  }
+
+  private static boolean isExpired(InvitationEntity invitation) {
+    Date expiresAt = invitation.getExpiresAt();
+    return expiresAt != null && expiresAt.getTime() <= Time.currentTimeMillis();
+  }
+
+  private static void send(
+      FreeMarkerEmailTemplateProvider emailTemplateProvider,
+      RealmModel realm,
+      OrganizationModel organization,
+      String email,
+      UserModel inviter,
+      String link) {
+    String realmName =
+        Strings.isNullOrEmpty(realm.getDisplayName()) ? realm.getName() : realm.getDisplayName();
+    String orgName =
+        Strings.isNullOrEmpty(organization.getDisplayName())
+            ? organization.getName()
+            : organization.getDisplayName();
+    String inviterName = getInviterName(inviter).orElse("");
+
+    List<Object> subjectAttributes = ImmutableList.of(realmName, orgName, inviterName);
+    Map<String, Object> bodyAttributes = Maps.newHashMap();
+    bodyAttributes.put("email", email);
+    bodyAttributes.put("realmName", realmName);
+    bodyAttributes.put("orgName", orgName);
+    bodyAttributes.put("inviterName", inviterName);
+    bodyAttributes.put("link", link);
+
+    emailTemplateProvider.setRealm(realm).setAttribute("realmName", realmName);
+    if (inviter != null) emailTemplateProvider.setUser(inviter);
+
+    try {
+      SEND_METHOD.invoke(
+          emailTemplateProvider,
+          SUBJECT_KEY,
+          subjectAttributes,
+          TEMPLATE_NAME,
+          bodyAttributes,
+          email);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Unable to send invitation email", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to send invitation email", e);
+    }
+  }
+
+  static Optional<String> getInviterName(UserModel user) {
+    if (user == null) return Optional.empty();
+    StringBuilder o = new StringBuilder();
+    if (!Strings.isNullOrEmpty(user.getFirstName())) {
+      o.append(user.getFirstName());
+    }
+    if (!Strings.isNullOrEmpty(user.getLastName())) {
+      if (o.length() > 0) {
+        o.append(" ");
+      }
+      o.append(user.getLastName());
+    }
+    if (!Strings.isNullOrEmpty(user.getEmail())) {
+      if (o.length() > 0) {
+        o.append(" ").append("(");
+      }
+      o.append(user.getEmail());
+      if (o.length() > user.getEmail().length()) {
+        o.append(")");
+      }
+    }
+    return Optional.ofNullable(Strings.emptyToNull(o.toString()));
+  }
+
+  private static EntityManager getEntityManager(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+}
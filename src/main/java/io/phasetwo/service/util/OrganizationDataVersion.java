@@ -0,0 +1,65 @@
+package io.phasetwo.service.util;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SingleUseObjectProvider;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Per-realm version stamp of the organization data that ends up in tokens (memberships, roles,
+ * names and attributes). It is kept in the cluster-wide single-use object store and replaced by a
+ * new random value on every write, so anything computed under an older stamp can be detected as
+ * stale. A missing (expired) stamp is simply regenerated, which invalidates everything computed
+ * before.
+ */
+public class OrganizationDataVersion {
+
+  private static final String KEY_PREFIX = "org-data-version.";
+  private static final String VERSION_NOTE = "version";
+  private static final long LIFESPAN = TimeUnit.DAYS.toSeconds(30);
+
+  /** Gets the current version for the realm. */
+  public static String get(KeycloakSession session, RealmModel realm) {
+    SingleUseObjectProvider store = session.singleUseObjects();
+    Map<String, String> notes = store.get(key(realm));
+    if (notes != null && notes.containsKey(VERSION_NOTE)) return notes.get(VERSION_NOTE);
+    return put(session, realm);
+  }
+
+  /**
+   * Replaces the version for the realm once the transaction commits, so that a claim computed
+   * under the new version can't come from data that isn't committed yet, and a rolled back write
+   * changes nothing. Only the first call in a session does any work.
+   */
+  public static void bump(KeycloakSession session, RealmModel realm) {
+    String attr = KEY_PREFIX + realm.getId() + ".bumped";
+    if (session.getAttribute(attr) != null) return;
+    session.setAttribute(attr, Boolean.TRUE);
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            new AbstractKeycloakTransaction() {
+              @Override
+              protected void commitImpl() {
+                put(session, realm);
+              }
+
+              @Override
+              protected void rollbackImpl() {}
+            });
+  }
+
+  private static String put(KeycloakSession session, RealmModel realm) {
+    String version = KeycloakModelUtils.generateId();
+    session.singleUseObjects().put(key(realm), LIFESPAN, ImmutableMap.of(VERSION_NOTE, version));
+    return version;
+  }
+
+  private static String key(RealmModel realm) {
+    return KEY_PREFIX + realm.getId();
+  }
+}
@@ -43,7 +43,7 @@ public abstract class AbstractOrganizationTest {
     "org.keycloak:keycloak-admin-client"
   };
 
-  static List<File> getDeps() {
+  public static List<File> getDeps() {
     List<File> dependencies = new ArrayList<File>();
     for (String dep : deps) {
       dependencies.addAll(getDep(dep));
@@ -67,6 +67,9 @@ public abstract class AbstractOrganizationTest {
       new KeycloakContainer(KEYCLOAK_IMAGE)
           .withContextPath("/auth")
           .withReuse(true)
+          .withEnv(
+              "KC_SPI_ORGANIZATION_PROVIDER_PROVIDER",
+              System.getProperty("organization-provider", "jpa-organization"))
           .withProviderClassesFrom("target/classes")
           .withProviderLibsFrom(getDeps());
 
@@ -0,0 +1,143 @@
+package io.phasetwo.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Just enough of an SMTP server to receive the emails sent by the server under test. The first
+ * {@code rejections} messages are refused with a temporary failure, to exercise retries.
+ */
+@JBossLog
+public class FakeSmtpServer implements AutoCloseable {
+
+  /** A received message. */
+  public static class Message {
+    private final List<String> recipients;
+    private final String data;
+
+    Message(List<String> recipients, String data) {
+      this.recipients = recipients;
+      this.data = data;
+    }
+
+    public List<String> getRecipients() {
+      return recipients;
+    }
+
+    public String getData() {
+      return data;
+    }
+  }
+
+  private final ServerSocket socket;
+  private final List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger rejections = new AtomicInteger();
+  private final AtomicInteger rejected = new AtomicInteger();
+  private final Thread acceptor;
+
+  public FakeSmtpServer(int port) throws IOException {
+    socket = new ServerSocket(port);
+    acceptor = new Thread(this::accept, "fake-smtp");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+
+  /** Refuses the next {@code count} messages. */
+  public void reject(int count) {
+    rejections.set(count);
+  }
+
+  /** Gets the number of messages refused so far. */
+  public int getRejected() {
+    return rejected.get();
+  }
+
+  public List<Message> getMessages() {
+    synchronized (messages) {
+      return new ArrayList<>(messages);
+    }
+  }
+
+  /** Gets the messages received for the recipient. */
+  public List<Message> getMessages(String recipient) {
+    return getMessages().stream()
+        .filter(m -> m.getRecipients().stream().anyMatch(r -> r.contains(recipient)))
+        .toList();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  private void accept() {
+    while (!socket.isClosed()) {
+      try (Socket client = socket.accept()) {
+        converse(client);
+      } catch (SocketException e) {
+        // closed
+      } catch (IOException e) {
+        log.warn("Error in fake SMTP server", e);
+      }
+    }
+  }
+
+  private void converse(Socket client) throws IOException {
+    BufferedReader in =
+        new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+    PrintWriter out = new PrintWriter(client.getOutputStream(), true, StandardCharsets.UTF_8);
+    reply(out, "220 localhost fake SMTP");
+    List<String> recipients = new ArrayList<>();
+    String line;
+    while ((line = in.readLine()) != null) {
+      String command = line.toUpperCase();
+      if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+        reply(out, "250 localhost");
+      } else if (command.startsWith("MAIL FROM")) {
+        recipients.clear();
+        if (rejections.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+          rejected.incrementAndGet();
+          reply(out, "451 try again later");
+        } else {
+          reply(out, "250 OK");
+        }
+      } else if (command.startsWith("RCPT TO")) {
+        recipients.add(line.substring(line.indexOf(':') + 1).trim());
+        reply(out, "250 OK");
+      } else if (command.equals("DATA")) {
+        reply(out, "354 end data with <CR><LF>.<CR><LF>");
+        StringBuilder data = new StringBuilder();
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+          data.append(line).append('\n');
+        }
+        messages.add(new Message(List.copyOf(recipients), data.toString()));
+        reply(out, "250 OK");
+      } else if (command.equals("QUIT")) {
+        reply(out, "221 bye");
+        return;
+      } else {
+        reply(out, "250 OK");
+      }
+    }
+  }
+
+  private static void reply(PrintWriter out, String reply) {
+    out.print(reply + "\r\n");
+    out.flush();
+  }
+}
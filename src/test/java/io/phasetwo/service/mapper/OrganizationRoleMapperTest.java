@@ -2,10 +2,12 @@ package io.phasetwo.service.mapper;
 
 import static io.phasetwo.service.Helpers.createUserWithCredentials;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
+import io.phasetwo.client.openapi.model.OrganizationRepresentation;
 import io.phasetwo.service.AbstractOrganizationTest;
 import io.phasetwo.service.protocol.oidc.mappers.OrganizationRoleMapper;
 import io.phasetwo.service.resource.OrganizationAdminAuth;
@@ -17,7 +19,9 @@ import java.util.Map;
 import lombok.extern.jbosslog.JBossLog;
 import org.junit.jupiter.api.Test;
 import org.keycloak.TokenVerifier;
+import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.token.TokenManager;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
 import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
 import org.keycloak.representations.AccessToken;
@@ -57,14 +61,10 @@ class OrganizationRoleMapperTest extends AbstractOrganizationTest {
     // parse the received access-token
     configureCustomOidcProtocolMapper(realm, client);
 
-    keycloak = getKeycloak(REALM, ADMIN_CLI, user.getUsername(), "pass");
-
-    TokenVerifier<AccessToken> verifier =
-        TokenVerifier.create(keycloak.tokenManager().getAccessTokenString(), AccessToken.class);
-    verifier.parse();
+    Keycloak userKeycloak = getKeycloak(REALM, ADMIN_CLI, user.getUsername(), "pass");
 
     // check for the custom claim
-    AccessToken accessToken = verifier.getToken();
+    AccessToken accessToken = parse(userKeycloak.tokenManager().getAccessTokenString());
 
     Map<String, Object> customClaimValue =
         (Map<String, Object>) accessToken.getOtherClaims().get(CLAIM);
@@ -81,6 +81,66 @@ class OrganizationRoleMapperTest extends AbstractOrganizationTest {
         customClaimValue.get(id));
   }
 
+  @Test
+  void shouldRecomputeClaimOnRefreshAfterOrganizationWrite() throws Exception {
+    OrganizationRepresentation org =
+        new OrganizationRepresentation().name("refreshed").domains(List.of("refreshed.com"));
+    String id = createOrganization(org).getId();
+    final UserRepresentation user = createUserWithCredentials(keycloak, REALM, "rdoe", "pass");
+    Response response = putRequest("foo", id, "members", user.getId());
+    assertThat(response.getStatusCode(), is(Status.CREATED.getStatusCode()));
+    grantUserRole(id, OrganizationAdminAuth.ORG_ROLE_VIEW_ORGANIZATION, user.getId());
+
+    RealmResource realm = keycloak.realm(REALM);
+    ClientRepresentation client = realm.clients().findByClientId(ADMIN_CLI).get(0);
+    configureCustomOidcProtocolMapper(realm, client);
+
+    Keycloak userKeycloak = getKeycloak(REALM, ADMIN_CLI, user.getUsername(), "pass");
+    TokenManager tokens = userKeycloak.tokenManager();
+    assertThat(
+        getRoles(parse(tokens.getAccessTokenString()), id),
+        is(List.of(OrganizationAdminAuth.ORG_ROLE_VIEW_ORGANIZATION)));
+
+    // reused from the user session note
+    assertThat(
+        getRoles(parse(tokens.refreshToken().getToken()), id),
+        is(List.of(OrganizationAdminAuth.ORG_ROLE_VIEW_ORGANIZATION)));
+
+    // a role write changes the claim of the next refresh
+    grantUserRole(id, OrganizationAdminAuth.ORG_ROLE_MANAGE_ORGANIZATION, user.getId());
+    assertThat(
+        getRoles(parse(tokens.refreshToken().getToken()), id),
+        containsInAnyOrder(
+            OrganizationAdminAuth.ORG_ROLE_VIEW_ORGANIZATION,
+            OrganizationAdminAuth.ORG_ROLE_MANAGE_ORGANIZATION));
+
+    // and so does a membership write
+    response = deleteRequest(id, "members", user.getId());
+    assertThat(response.getStatusCode(), is(Status.NO_CONTENT.getStatusCode()));
+    Map<String, Object> claim = getClaim(parse(tokens.refreshToken().getToken()));
+    assertThat(claim == null || !claim.containsKey(id), is(true));
+
+    deleteOrganization(id);
+    realm.users().get(user.getId()).remove();
+  }
+
+  private static AccessToken parse(String token) throws Exception {
+    TokenVerifier<AccessToken> verifier = TokenVerifier.create(token, AccessToken.class);
+    verifier.parse();
+    return verifier.getToken();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getClaim(AccessToken accessToken) {
+    return (Map<String, Object>) accessToken.getOtherClaims().get(CLAIM);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<String> getRoles(AccessToken accessToken, String id) {
+    Map<String, Object> org = (Map<String, Object>) getClaim(accessToken).get(id);
+    return (List<String>) org.get("roles");
+  }
+
   private static void configureCustomOidcProtocolMapper(
       RealmResource realm, ClientRepresentation client) {
     ProtocolMapperRepresentation mapper = new ProtocolMapperRepresentation();
@@ -0,0 +1,286 @@
+package io.phasetwo.service.model.cache;
+
+import static io.phasetwo.service.Helpers.createUser;
+import static io.phasetwo.service.Helpers.toJsonString;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dasniko.testcontainers.keycloak.KeycloakContainer;
+import io.phasetwo.service.AbstractOrganizationTest;
+import io.phasetwo.service.representation.OrganizationRole;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import lombok.extern.jbosslog.JBossLog;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.testcontainers.containers.Network;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * Runs two clustered nodes with the cached organization provider against a shared database, to
+ * check that writes are seen by later reads in the same session, in a new session, and on the
+ * other node, by the caches as well as by the node-local indexes they rely on.
+ */
+@JBossLog
+class CachedOrganizationProviderTest {
+
+  static final String REALM = "master";
+
+  static final Network network = Network.newNetwork();
+
+  static final PostgreSQLContainer<?> postgres =
+      new PostgreSQLContainer<>("postgres:15")
+          .withNetwork(network)
+          .withNetworkAliases("postgres")
+          .withDatabaseName("keycloak")
+          .withUsername("keycloak")
+          .withPassword("keycloak");
+
+  static final KeycloakContainer node1 = node();
+  static final KeycloakContainer node2 = node();
+
+  static Keycloak keycloak1;
+  static Keycloak keycloak2;
+
+  static KeycloakContainer node() {
+    return new KeycloakContainer(AbstractOrganizationTest.KEYCLOAK_IMAGE)
+        .withContextPath("/auth")
+        .withNetwork(network)
+        .withEnv("KC_DB", "postgres")
+        .withEnv("KC_DB_URL", "jdbc:postgresql://postgres:5432/keycloak")
+        .withEnv("KC_DB_USERNAME", "keycloak")
+        .withEnv("KC_DB_PASSWORD", "keycloak")
+        .withEnv("KC_CACHE", "ispn")
+        .withEnv("KC_CACHE_STACK", "tcp")
+        .withEnv(
+            "KC_SPI_ORGANIZATION_PROVIDER_PROVIDER",
+            CachedOrganizationProviderFactory.PROVIDER_ID)
+        .withProviderClassesFrom("target/classes")
+        .withProviderLibsFrom(AbstractOrganizationTest.getDeps());
+  }
+
+  @BeforeAll
+  static void beforeAll() {
+    postgres.start();
+    // one at a time, so that only the first one migrates the database
+    node1.start();
+    node2.start();
+    keycloak1 = admin(node1);
+    keycloak2 = admin(node2);
+  }
+
+  @AfterAll
+  static void afterAll() {
+    node2.stop();
+    node1.stop();
+    postgres.stop();
+    network.close();
+  }
+
+  static Keycloak admin(KeycloakContainer node) {
+    return Keycloak.getInstance(
+        node.getAuthServerUrl(),
+        REALM,
+        node.getAdminUsername(),
+        node.getAdminPassword(),
+        AbstractOrganizationTest.ADMIN_CLI);
+  }
+
+  @Test
+  void testWriteThenReadInNewSession() throws Exception {
+    String id = createOrganization(keycloak1, "cached-new-session");
+    assertThat(getOrganization(keycloak1, id).get("displayName"), is((Object) null));
+
+    updateOrganization(keycloak1, id, "Cached Company");
+    assertThat(getOrganization(keycloak1, id).get("displayName"), is("Cached Company"));
+
+    UserRepresentation user = createUser(keycloak1, REALM, "cached-new-session");
+    createRole(keycloak1, id, "cached-role");
+    String member = id + "/members/" + user.getId();
+    assertThat(spec(keycloak1).get(member).statusCode(), is(404));
+    assertThat(spec(keycloak1).body("foo").put(member).statusCode(), is(201));
+    assertThat(spec(keycloak1).get(member).statusCode(), is(204));
+
+    String mapping = id + "/roles/cached-role/users/" + user.getId();
+    assertThat(spec(keycloak1).get(mapping).statusCode(), is(404));
+    assertThat(spec(keycloak1).body("foo").put(mapping).statusCode(), is(201));
+    assertThat(spec(keycloak1).get(mapping).statusCode(), is(204));
+    assertThat(spec(keycloak1).delete(mapping).statusCode(), is(204));
+    assertThat(spec(keycloak1).get(mapping).statusCode(), is(404));
+
+    assertThat(spec(keycloak1).delete(id).statusCode(), is(204));
+    assertThat(spec(keycloak1).get(id).statusCode(), is(404));
+    keycloak1.realm(REALM).users().get(user.getId()).remove();
+  }
+
+  @Test
+  void testWriteThenReadInSameSession() throws Exception {
+    RealmRepresentation realm = keycloak1.realm(REALM).toRepresentation();
+    realm.setAdminEventsEnabled(true);
+    realm.setAdminEventsDetailsEnabled(true);
+    keycloak1.realm(REALM).update(realm);
+
+    String id = createOrganization(keycloak1, "cached-same-session");
+    createRole(keycloak1, id, "described-role");
+    // cache the role before it is updated
+    assertThat(getRole(keycloak1, id, "described-role").getDescription(), is((String) null));
+
+    OrganizationRole role = new OrganizationRole().name("described-role").description("updated");
+    Response response =
+        spec(keycloak1).body(toJsonString(role)).put(id + "/roles/described-role").andReturn();
+    assertThat(response.statusCode(), is(204));
+
+    // the representation of the event is read back after the update, in the same session
+    List<AdminEventRepresentation> events =
+        keycloak1
+            .realm(REALM)
+            .getAdminEvents(
+                List.of("UPDATE"),
+                null,
+                null,
+                null,
+                null,
+                null,
+                List.of("ORGANIZATION_ROLE"),
+                null,
+                null,
+                0,
+                1);
+    assertThat(events.size(), is(1));
+    OrganizationRole updated =
+        new ObjectMapper().readValue(events.get(0).getRepresentation(), OrganizationRole.class);
+    assertThat(updated.getDescription(), is("updated"));
+    assertThat(getRole(keycloak1, id, "described-role").getDescription(), is("updated"));
+
+    realm.setAdminEventsEnabled(false);
+    keycloak1.realm(REALM).update(realm);
+    assertThat(spec(keycloak1).delete(id).statusCode(), is(204));
+  }
+
+  @Test
+  void testWriteIsSeenOnOtherNode() throws Exception {
+    String id = createOrganization(keycloak1, "cached-other-node");
+    UserRepresentation user = createUser(keycloak1, REALM, "cached-other-node");
+    createRole(keycloak1, id, "clustered-role");
+    String member = id + "/members/" + user.getId();
+    assertThat(spec(keycloak1).body("foo").put(member).statusCode(), is(201));
+
+    // cache the organization and the memberships of the user on the other node
+    String mapping = id + "/roles/clustered-role/users/" + user.getId();
+    assertThat(getOrganization(keycloak2, id).get("displayName"), is((Object) null));
+    assertThat(spec(keycloak2).get(mapping).statusCode(), is(404));
+
+    updateOrganization(keycloak1, id, "Clustered Company");
+    assertThat(spec(keycloak1).body("foo").put(mapping).statusCode(), is(201));
+
+    // invalidations are sent when the transaction completes, and applied on arrival
+    awaitTrue(
+        () -> "Clustered Company".equals(getOrganization(keycloak2, id).get("displayName")));
+    awaitTrue(() -> spec(keycloak2).get(mapping).statusCode() == 204);
+
+    assertThat(spec(keycloak1).delete(id).statusCode(), is(204));
+    awaitTrue(() -> spec(keycloak2).get(id).statusCode() == 404);
+    keycloak1.realm(REALM).users().get(user.getId()).remove();
+  }
+
+  @Test
+  void testInvitationIsSeenOnOtherNode() throws Exception {
+    String id = createOrganization(keycloak1, "invited-other-node");
+    UserRepresentation user = new UserRepresentation();
+    user.setEnabled(true);
+    user.setUsername("invited-other-node");
+    user.setEmail("invited-other-node@example.com");
+    user = createUser(keycloak1, REALM, user);
+
+    // builds the email filter of the realm on the other node, without the email
+    String invitations = "users/" + user.getId() + "/orgs/invitations";
+    assertThat(getUserInvitations(keycloak2, invitations).size(), is(0));
+
+    Response response =
+        spec(keycloak1)
+            .body(toJsonString(Map.of("email", "invited-other-node@example.com")))
+            .post(id + "/invitations")
+            .andReturn();
+    assertThat(response.statusCode(), is(201));
+
+    // the email is added to the filter on every node
+    awaitTrue(() -> getUserInvitations(keycloak2, invitations).size() == 1);
+
+    assertThat(spec(keycloak1).delete(id).statusCode(), is(204));
+    assertThat(getUserInvitations(keycloak2, invitations).size(), is(0));
+    keycloak1.realm(REALM).users().get(user.getId()).remove();
+  }
+
+  List<Object> getUserInvitations(Keycloak keycloak, String path) {
+    Response response = spec(keycloak, "realms/" + REALM).get(path).andReturn();
+    assertThat(response.statusCode(), is(200));
+    return response.jsonPath().getList("");
+  }
+
+  RequestSpecification spec(Keycloak keycloak) {
+    return spec(keycloak, "realms/" + REALM + "/orgs");
+  }
+
+  RequestSpecification spec(Keycloak keycloak, String basePath) {
+    return given()
+        .baseUri(keycloak == keycloak1 ? node1.getAuthServerUrl() : node2.getAuthServerUrl())
+        .basePath(basePath)
+        .contentType("application/json")
+        .auth()
+        .oauth2(keycloak.tokenManager().getAccessTokenString())
+        .when();
+  }
+
+  String createOrganization(Keycloak keycloak, String name) throws Exception {
+    Response response =
+        spec(keycloak).body(toJsonString(Map.of("name", name))).post().andReturn();
+    assertThat(response.statusCode(), is(201));
+    String location = response.getHeader("Location");
+    return location.substring(location.lastIndexOf("/") + 1);
+  }
+
+  Map<String, Object> getOrganization(Keycloak keycloak, String id) {
+    Response response = spec(keycloak).get(id).andReturn();
+    assertThat(response.statusCode(), is(200));
+    return response.jsonPath().getMap("");
+  }
+
+  void updateOrganization(Keycloak keycloak, String id, String displayName) throws Exception {
+    Map<String, Object> rep = getOrganization(keycloak, id);
+    rep.put("displayName", displayName);
+    assertThat(spec(keycloak).body(toJsonString(rep)).put(id).statusCode(), is(204));
+  }
+
+  void createRole(Keycloak keycloak, String id, String name) throws Exception {
+    Response response =
+        spec(keycloak)
+            .body(toJsonString(new OrganizationRole().name(name)))
+            .post(id + "/roles")
+            .andReturn();
+    assertThat(response.statusCode(), is(201));
+  }
+
+  OrganizationRole getRole(Keycloak keycloak, String id, String name) {
+    Response response = spec(keycloak).get(id + "/roles/" + name).andReturn();
+    assertThat(response.statusCode(), is(200));
+    return response.as(OrganizationRole.class);
+  }
+
+  static void awaitTrue(Supplier<Boolean> condition) throws InterruptedException {
+    for (int n = 0; n < 50; n++) {
+      if (condition.get()) return;
+      Thread.sleep(200);
+    }
+    assertThat(condition.get(), is(true));
+  }
+}
@@ -14,6 +14,7 @@ import io.phasetwo.client.PhaseTwo;
 import io.phasetwo.client.openapi.api.IdentityProvidersApi;
 import io.phasetwo.client.openapi.api.UsersApi;
 import io.phasetwo.client.openapi.model.*;
+import io.phasetwo.service.FakeSmtpServer;
 import io.phasetwo.service.representation.BulkResponseItem;
 import io.phasetwo.service.representation.OrganizationRole;
 import lombok.extern.jbosslog.JBossLog;
@@ -21,17 +22,26 @@ import org.apache.http.HttpStatus;
 import com.github.xgp.http.server.Server;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.keycloak.admin.client.CreatedResponseUtil;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RealmRepresentation;
 import org.keycloak.broker.provider.util.SimpleHttp;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.keycloak.util.JsonSerialization;
 import org.apache.http.impl.client.HttpClients;
 
 import jakarta.ws.rs.ClientErrorException;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +55,7 @@ import static io.phasetwo.service.Helpers.*;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasSize;
@@ -76,6 +87,107 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         }
     }
 
+    @Test
+    public void testRealmRemoveWithOrganizations() throws Exception {
+        String realm = "foo-orgs";
+        RealmRepresentation r = new RealmRepresentation();
+        r.setId(realm + "-id");
+        r.setEnabled(true);
+        r.setRealm(realm);
+        try (Keycloak keycloak = server.client();
+             CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            keycloak.realms().create(r);
+            PhaseTwo client = phaseTwo(keycloak);
+            OrganizationsResource orgsResource = client.organizations(realm);
+
+            // teams have no endpoint yet, everything else an organization can hold
+            for (String name : List.of("first", "second")) {
+                String id = orgsResource.create(new OrganizationRepresentation()
+                        .name(name)
+                        .domains(List.of(name + ".com"))
+                        .attributes(ImmutableMap.of("foo", List.of("bar"))));
+                OrganizationResource orgResource = orgsResource.organization(id);
+                orgResource.roles().create(new OrganizationRoleRepresentation().name("eat-apples"));
+
+                org.keycloak.representations.idm.UserRepresentation user =
+                        createUser(keycloak, realm, name + "-member");
+                orgResource.memberships().add(user.getId());
+                orgResource.roles().grant("eat-apples", user.getId());
+
+                SimpleHttp.Response response =
+                        SimpleHttp.doPost(server.getAuthUrl() + "/realms/" + realm + "/orgs/" + id + "/invitations", httpClient)
+                                .json(Map.of("email", name + "@example.com", "roles", List.of("eat-apples"), "send", true))
+                                .auth(keycloak.tokenManager().getAccessTokenString())
+                                .asResponse();
+                assertThat(response.getStatus(), is(201));
+
+                IdentityProviderRepresentation idp = new IdentityProviderRepresentation();
+                idp.setAlias(name + "-idp");
+                idp.setProviderId("oidc");
+                idp.setEnabled(true);
+                idp.setFirstBrokerLoginFlowAlias("first broker login");
+                idp.setConfig(
+                        new ImmutableMap.Builder<String, Object>()
+                                .put("authorizationUrl", "https://foo.com")
+                                .put("tokenUrl", "https://foo.com")
+                                .put("clientAuthMethod", "client_secret_post")
+                                .put("clientId", "aabbcc")
+                                .put("clientSecret", "112233")
+                                .build());
+                orgResource.identityProviders().create(idp);
+            }
+            assertThat(orgsResource.get(), hasSize(2));
+
+            // fails on any foreign key left pointing at a removed row
+            keycloak.realms().realm(realm).remove();
+
+            // a realm with the same id finds nothing left behind
+            keycloak.realms().create(r);
+            assertThat(orgsResource.get(), empty());
+            keycloak.realms().realm(realm).remove();
+        }
+    }
+
+    @Test
+    public void testUserRemoveWithOrganizations() throws Exception {
+        Keycloak keycloak = server.client();
+        PhaseTwo client = phaseTwo(keycloak);
+        OrganizationsResource orgsResource = client.organizations(REALM);
+        String id = createDefaultOrg(orgsResource);
+        OrganizationResource orgResource = orgsResource.organization(id);
+        orgResource.roles().create(new OrganizationRoleRepresentation().name("eat-apples"));
+
+        org.keycloak.representations.idm.UserRepresentation user =
+                new org.keycloak.representations.idm.UserRepresentation();
+        user.setEnabled(true);
+        user.setUsername("removed");
+        user.setEmail("removed@example.com");
+        user = createUser(keycloak, REALM, user);
+
+        // invited with a role before becoming a member
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            SimpleHttp.Response response =
+                    SimpleHttp.doPost(server.getAuthUrl() + "/realms/master/orgs/" + id + "/invitations", httpClient)
+                            .json(Map.of("email", "removed@example.com", "roles", List.of("eat-apples")))
+                            .auth(keycloak.tokenManager().getAccessTokenString())
+                            .asResponse();
+            assertThat(response.getStatus(), is(201));
+        }
+        orgResource.memberships().add(user.getId());
+        orgResource.roles().grant("eat-apples", user.getId());
+        assertThat(orgResource.invitations().get(), hasSize(1));
+
+        // fails on any foreign key left pointing at the user's rows
+        deleteUser(keycloak, REALM, user.getId());
+
+        assertThat(orgResource.memberships().isMember(user.getId()), is(false));
+        assertThat(orgResource.roles().users("eat-apples"), empty());
+        assertThat(orgResource.invitations().get(), empty());
+        assertThat(orgResource.get().getId(), is(id));
+
+        orgResource.delete();
+    }
+
     @Test
     public void testRealmId() {
         try (Keycloak keycloak = server.client()) {
@@ -115,7 +227,7 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         ids.add(orgsResource.create(new OrganizationRepresentation().name("foobar").domains(List.of("foobar.com"))));
         ids.add(orgsResource.create(new OrganizationRepresentation().name("bar").domains(List.of("bar.com"))));
         ids.add(orgsResource.create(new OrganizationRepresentation().name("baz").domains(List.of("baz.com")).attributes(Map.of("foo", List.of("bar")))));
-        ids.add(orgsResource.create(new OrganizationRepresentation().name("qux").domains(List.of("baz.com")).attributes(Map.of("foo", List.of("bar")))));
+        ids.add(orgsResource.create(new OrganizationRepresentation().name("qux").domains(List.of("baz.com")).attributes(Map.of("foo", List.of("bar"), "color", List.of("red")))));
 
         List<OrganizationRepresentation> orgs = orgsResource.get(Optional.of("foo"), Optional.empty(), Optional.empty());
         assertThat(orgs, notNullValue());
@@ -149,6 +261,17 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
             assertThat(res.size(), is(2));
         }
 
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            // Search several attributes
+            String url = server.getAuthUrl() + "/realms/master/orgs?q=foo:bar%20color:red";
+            SimpleHttp.Response response = SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<OrganizationRepresentation> res = response.asJson(List.class);
+            assertThat(res.size(), is(1));
+        }
+
         try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
             // Search attributes and name
             String url = server.getAuthUrl() + "/realms/master/orgs?search=qu&q=foo:bar";
@@ -160,6 +283,66 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
             assertThat(res.size(), is(1));
         }
 
+        //orgs cursor paging
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/orgs?search=a&max=2";
+            SimpleHttp.Response response = SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<Map<String, Object>> res = response.asJson(List.class);
+            assertThat(res.size(), is(2));
+            assertThat(res.get(0).get("name"), is("bar"));
+            assertThat(res.get(1).get("name"), is("baz"));
+            String cursor = response.getFirstHeader("X-Next-Cursor");
+            assertNotNull(cursor);
+
+            response = SimpleHttp.doGet(url + "&cursor=" + cursor, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            res = response.asJson(List.class);
+            assertThat(res.size(), is(2));
+            assertThat(res.get(0).get("name"), is("example"));
+            assertThat(res.get(1).get("name"), is("foobar"));
+            cursor = response.getFirstHeader("X-Next-Cursor");
+            assertNotNull(cursor);
+
+            response = SimpleHttp.doGet(url + "&cursor=" + cursor, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            res = response.asJson(List.class);
+            assertThat(res.size(), is(0));
+
+            response = SimpleHttp.doGet(url + "&cursor=invalid", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(400));
+        }
+
+        //orgs suggest
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/orgs/suggest?prefix=Fo";
+            SimpleHttp.Response response = SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<Map<String, Object>> res = response.asJson(List.class);
+            assertThat(res.size(), is(2));
+            assertThat(res.get(0).get("name"), is("foo"));
+            assertThat(res.get(1).get("name"), is("foobar"));
+
+            // renames are picked up
+            OrganizationRepresentation bar = orgsResource.organization(ids.get(3)).get();
+            orgsResource.organization(ids.get(3)).update(bar.displayName("Fox"));
+            response = SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            res = response.asJson(List.class);
+            assertThat(res.size(), is(3));
+        }
+
         //orgs count
         try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
             String url = server.getAuthUrl() + "/realms/master/orgs/count";
@@ -177,7 +360,7 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
     }
 
     @Test
-    public void testGetDomains() {
+    public void testGetDomains() throws Exception {
         PhaseTwo client = phaseTwo();
         OrganizationsResource orgsResource = client.organizations(REALM);
         String id = createDefaultOrg(orgsResource);
@@ -213,6 +396,26 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         // verify
         domainsResource.verify("foo.com");
 
+        // verification runs in the background, and its status is polled at the domain
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/orgs/" + id + "/domains/bar.net";
+            SimpleHttp.Response response = SimpleHttp.doPost(url + "/verify", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(202));
+            assertThat(response.getFirstHeader("Location"), is(url));
+            String status = (String) response.asJson(Map.class).get("verification_status");
+            for (int n = 0; n < 50 && "PENDING".equals(status); n++) {
+                Thread.sleep(200);
+                status = (String) SimpleHttp.doGet(url, httpClient)
+                        .auth(server.client().tokenManager().getAccessTokenString())
+                        .asJson(Map.class)
+                        .get("verification_status");
+            }
+            // there is no ownership record for bar.net
+            assertThat(status, is("FAILED"));
+        }
+
         // delete org
         orgResource.delete();
     }
@@ -364,7 +567,7 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
     }
 
     @Test
-    public void testAddGetDeleteMemberships() {
+    public void testAddGetDeleteMemberships() throws Exception {
         Keycloak keycloak = server.client();
         PhaseTwo client = phaseTwo(keycloak);
         OrganizationsResource orgsResource = client.organizations(REALM);
@@ -394,10 +597,53 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         assertThat(members, hasSize(2)); // +default org admin
         assertThat(members, hasItem(hasProperty("username", is("johndoe"))));
 
+        // search members
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/orgs/" + id + "/members?search=JOHN&max=1";
+            SimpleHttp.Response response = SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<UserRepresentation> res = response.asJson(new TypeReference<List<UserRepresentation>>() {});
+            assertThat(res, hasSize(1));
+            assertThat(res.get(0).getUsername(), is("johndoe"));
+        }
+
         // delete membership and check
         membershipsResource.remove(user.getId());
         assertThat(membershipsResource.isMember(user.getId()), is(false));
 
+        // bulk add members, reporting unknown users and service accounts
+        org.keycloak.representations.idm.ClientRepresentation serviceClient =
+                new org.keycloak.representations.idm.ClientRepresentation();
+        serviceClient.setClientId("bulk-service");
+        serviceClient.setServiceAccountsEnabled(true);
+        serviceClient.setPublicClient(false);
+        String serviceClientId;
+        try (Response response = keycloak.realm(REALM).clients().create(serviceClient)) {
+            serviceClientId = CreatedResponseUtil.getCreatedId(response);
+        }
+        String serviceAccountId =
+                keycloak.realm(REALM).clients().get(serviceClientId).getServiceAccountUser().getId();
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(server.getAuthUrl() + "/realms/master/orgs/" + id + "/members/bulk");
+            post.setHeader("Authorization", "Bearer " + server.client().tokenManager().getAccessTokenString());
+            post.setEntity(new StringEntity(user.getId() + "\n\"does-not-exist\"\n" + serviceAccountId + "\n",
+                    ContentType.create("application/x-ndjson", StandardCharsets.UTF_8)));
+            try (CloseableHttpResponse response = httpClient.execute(post)) {
+                assertThat(response.getStatusLine().getStatusCode(), is(207));
+                String[] lines = EntityUtils.toString(response.getEntity()).split("\n");
+                assertThat(lines.length, is(3));
+                assertThat(JsonSerialization.readValue(lines[0], BulkResponseItem.class).getStatus(), is(201));
+                assertThat(JsonSerialization.readValue(lines[1], BulkResponseItem.class).getStatus(), is(404));
+                assertThat(JsonSerialization.readValue(lines[2], BulkResponseItem.class).getStatus(), is(400));
+            }
+        }
+        assertThat(membershipsResource.isMember(user.getId()), is(true));
+        assertThat(membershipsResource.isMember(serviceAccountId), is(false));
+        membershipsResource.remove(user.getId());
+        keycloak.realm(REALM).clients().get(serviceClientId).remove();
+
         // add membership
         membershipsResource.add(user.getId());
 
@@ -445,7 +691,7 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
     }
 
     @Test
-    public void testAddGetDeleteRoles() {
+    public void testAddGetDeleteRoles() throws Exception {
         Keycloak keycloak = server.client();
         PhaseTwo client = phaseTwo(keycloak);
         OrganizationsResource orgsResource = client.organizations(REALM);
@@ -530,6 +776,23 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
             assertThat(rolesResource.hasRole(roleName, user.getId()), is(true));
         }
 
+        // get members with their roles
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            SimpleHttp.Response response = SimpleHttp.doGet(
+                            server.getAuthUrl() + "/realms/master/orgs/" + id + "/members/with-roles", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<Map<String, Object>> members =
+                    response.asJson(new TypeReference<List<Map<String, Object>>>() {});
+            List<String> memberRoles = members.stream()
+                    .filter(m -> "johndoe".equals(((Map<?, ?>) m.get("user")).get("username")))
+                    .flatMap(m -> ((List<Map<String, Object>>) m.get("organizationRoles")).stream())
+                    .map(r -> (String) r.get("name"))
+                    .toList();
+            assertThat(memberRoles, containsInAnyOrder(additionalRoles));
+        }
+
         // delete user
         deleteUser(keycloak, REALM, user.getId());
 
@@ -1000,6 +1263,56 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         assertThat(invites.get(0).getEmail(), is("johndoe@example.com"));
         String invId = invites.get(0).getId();
 
+        // search and page invitations
+        invitationsResource.add(new InvitationRequestRepresentation().email("janedoe@example.com"));
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/orgs/" + id + "/invitations";
+            SimpleHttp.Response response = SimpleHttp.doGet(url + "?search=JOHN", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(200));
+            List<InvitationRepresentation> res =
+                    response.asJson(new TypeReference<List<InvitationRepresentation>>() {});
+            assertThat(res, hasSize(1));
+            assertThat(res.get(0).getId(), is(invId));
+
+            // ordered by email
+            response = SimpleHttp.doGet(url + "?first=0&max=1", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            res = response.asJson(new TypeReference<List<InvitationRepresentation>>() {});
+            assertThat(res, hasSize(1));
+            assertThat(res.get(0).getEmail(), is("janedoe@example.com"));
+            String janeId = res.get(0).getId();
+            response = SimpleHttp.doGet(url + "?first=1&max=1", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            res = response.asJson(new TypeReference<List<InvitationRepresentation>>() {});
+            assertThat(res, hasSize(1));
+            assertThat(res.get(0).getEmail(), is("johndoe@example.com"));
+            invitationsResource.delete(janeId);
+
+            // expiring invitations
+            response = SimpleHttp.doPost(url, httpClient)
+                    .json(Map.of("email", "jimdoe@example.com", "expiresIn", 0))
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(400));
+            response = SimpleHttp.doPost(url, httpClient)
+                    .json(Map.of("email", "jimdoe@example.com", "expiresIn", 3600))
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            assertThat(response.getStatus(), is(201));
+            response = SimpleHttp.doGet(url + "?search=jim", httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asResponse();
+            List<Map<String, Object>> expiring =
+                    response.asJson(new TypeReference<List<Map<String, Object>>>() {});
+            assertThat(expiring, hasSize(1));
+            assertThat(expiring.get(0).get("expiresAt"), notNullValue());
+            invitationsResource.delete((String) expiring.get(0).get("id"));
+        }
+
         // try a conflicting invitation
         ClientErrorException ex = assertThrows(ClientErrorException.class, () -> invitationsResource.add(inv));
         assertThat(ex.getResponse().getStatus(), is(HttpStatus.SC_CONFLICT));
@@ -1026,6 +1339,30 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         ex = assertThrows(ClientErrorException.class, () -> invitationsResource.add(inv));
         assertThat(ex.getResponse().getStatus(), is(HttpStatus.SC_CONFLICT));
 
+        // bulk create invitations, reporting members, duplicates and bad emails
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            HttpPost post = new HttpPost(server.getAuthUrl() + "/realms/master/orgs/" + id + "/invitations/bulk");
+            post.setHeader("Authorization", "Bearer " + server.client().tokenManager().getAccessTokenString());
+            String body = "{\"email\":\"janedoe@example.com\"}\n"
+                    + "{\"email\":\"JaneDoe@example.com\"}\n"
+                    + "{\"email\":\"johndoe@example.com\"}\n"
+                    + "{\"email\":\"not an email\"}\n";
+            post.setEntity(new StringEntity(body, ContentType.create("application/x-ndjson", StandardCharsets.UTF_8)));
+            try (CloseableHttpResponse response = httpClient.execute(post)) {
+                assertThat(response.getStatusLine().getStatusCode(), is(207));
+                String[] lines = EntityUtils.toString(response.getEntity()).split("\n");
+                assertThat(lines.length, is(4));
+                assertThat(JsonSerialization.readValue(lines[0], BulkResponseItem.class).getStatus(), is(201));
+                assertThat(JsonSerialization.readValue(lines[1], BulkResponseItem.class).getStatus(), is(409));
+                assertThat(JsonSerialization.readValue(lines[2], BulkResponseItem.class).getStatus(), is(409));
+                assertThat(JsonSerialization.readValue(lines[3], BulkResponseItem.class).getStatus(), is(400));
+            }
+        }
+        invites = invitationsResource.get();
+        assertThat(invites, hasSize(1));
+        assertThat(invites.get(0).getEmail(), is("janedoe@example.com"));
+        invitationsResource.delete(invites.get(0).getId());
+
         // get invitations
         invites = invitationsResource.get();
         assertThat(invites, notNullValue());
@@ -1038,6 +1375,116 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         orgResource.delete();
     }
 
+    @Test
+    public void testUserInvitationsEmailIndex() throws Exception {
+        Keycloak keycloak = server.client();
+        PhaseTwo client = phaseTwo(keycloak);
+        OrganizationsResource orgsResource = client.organizations(REALM);
+        String id = createDefaultOrg(orgsResource);
+        OrganizationInvitationsResource invitationsResource = orgsResource.organization(id).invitations();
+
+        org.keycloak.representations.idm.UserRepresentation user =
+                new org.keycloak.representations.idm.UserRepresentation();
+        user.setEnabled(true);
+        user.setUsername("invited");
+        user.setEmail("Invited@Example.com");
+        user = createUser(keycloak, REALM, user);
+
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            String url = server.getAuthUrl() + "/realms/master/users/" + user.getId() + "/orgs/invitations";
+            Callable<List<Map<String, Object>>> getInvitations = () -> SimpleHttp.doGet(url, httpClient)
+                    .auth(server.client().tokenManager().getAccessTokenString())
+                    .asJson(new TypeReference<List<Map<String, Object>>>() {});
+
+            // not in the filter, which is built by this first check
+            assertThat(getInvitations.call(), empty());
+
+            // added after the filter was built, with a differently cased email
+            String invId = invitationsResource.add(new InvitationRequestRepresentation().email("INVITED@example.com"));
+            List<Map<String, Object>> invitations = getInvitations.call();
+            assertThat(invitations, hasSize(1));
+            assertThat(invitations.get(0).get("id"), is(invId));
+
+            // revoked, the email stays in the filter but the invitation is gone
+            invitationsResource.delete(invId);
+            assertThat(getInvitations.call(), empty());
+
+            // invited again
+            invId = invitationsResource.add(new InvitationRequestRepresentation().email("invited@example.com"));
+            assertThat(getInvitations.call(), hasSize(1));
+            invitationsResource.delete(invId);
+        }
+
+        deleteUser(keycloak, REALM, user.getId());
+        orgsResource.organization(id).delete();
+    }
+
+    @Test
+    public void testInvitationEmails() throws Exception {
+        Keycloak keycloak = server.client();
+        PhaseTwo client = phaseTwo(keycloak);
+        OrganizationsResource orgsResource = client.organizations(REALM);
+        String id = createDefaultOrg(orgsResource);
+        OrganizationInvitationsResource invitationsResource = orgsResource.organization(id).invitations();
+
+        RealmRepresentation realm = keycloak.realm(REALM).toRepresentation();
+        Map<String, String> smtp = realm.getSmtpServer();
+        int port = nextFreePort(2525, 2625);
+        try (FakeSmtpServer smtpServer = new FakeSmtpServer(port);
+             CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            realm.setSmtpServer(Map.of("host", "127.0.0.1", "port", String.valueOf(port), "from", "orgs@example.com"));
+            keycloak.realm(REALM).update(realm);
+            String url = server.getAuthUrl() + "/realms/master/orgs/" + id + "/invitations";
+            Consumer<String> invite = email -> {
+                try {
+                    SimpleHttp.Response response = SimpleHttp.doPost(url, httpClient)
+                            .json(Map.of("email", email, "send", true))
+                            .auth(server.client().tokenManager().getAccessTokenString())
+                            .asResponse();
+                    assertThat(response.getStatus(), is(201));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+
+            // queued with the invitation and sent once it is committed, by only one worker
+            invite.accept("sent@example.com");
+            awaitTrue(() -> smtpServer.getMessages("sent@example.com").size() == 1, 30);
+            Thread.sleep(2000l);
+            assertThat(smtpServer.getMessages("sent@example.com"), hasSize(1));
+            assertThat(smtpServer.getMessages().get(0).getData(), containsString("example"));
+
+            // refused, and sent again after the backoff, unless the invitation was removed meanwhile
+            smtpServer.reject(2);
+            invite.accept("retried@example.com");
+            invite.accept("removed@example.com");
+            awaitTrue(() -> smtpServer.getRejected() == 2, 30);
+            String removedId = invitationsResource.get().stream()
+                    .filter(i -> i.getEmail().equals("removed@example.com"))
+                    .findFirst()
+                    .orElseThrow()
+                    .getId();
+            invitationsResource.delete(removedId);
+            awaitTrue(() -> smtpServer.getMessages("retried@example.com").size() == 1, 120);
+            Thread.sleep(2000l);
+            assertThat(smtpServer.getMessages("retried@example.com"), hasSize(1));
+            assertThat(smtpServer.getMessages("removed@example.com"), empty());
+        } finally {
+            realm.setSmtpServer(smtp);
+            keycloak.realm(REALM).update(realm);
+        }
+
+        orgsResource.organization(id).delete();
+    }
+
+    private static void awaitTrue(Callable<Boolean> condition, int seconds) throws Exception {
+        for (int n = 0; n < seconds * 2; n++) {
+            if (condition.call()) return;
+            Thread.sleep(500l);
+        }
+        assertThat(condition.call(), is(true));
+    }
+
     @Test
     public void testListOrgsByMember() {
         Keycloak keycloak = server.client();
@@ -1300,6 +1747,45 @@ class OrganizationResourceTest extends AbstractOrganizationTest {
         orgsResource.organization(orgId2).delete();
     }
 
+    @Test
+    public void testIdpsOwnedOrgsCreatedInRealm() {
+        PhaseTwo client = phaseTwo();
+        OrganizationsResource orgsResource = client.organizations(REALM);
+        String orgId = orgsResource.create(new OrganizationRepresentation().name("example"));
+        OrganizationIdentityProvidersResource idpResource =
+                orgsResource.organization(orgId).identityProviders();
+
+        // builds the index before the idp exists
+        assertThat(idpResource.get(), empty());
+
+        // create an idp owned by the org with the realm's own endpoint
+        org.keycloak.representations.idm.IdentityProviderRepresentation idp =
+                new org.keycloak.representations.idm.IdentityProviderRepresentation();
+        idp.setAlias("realm-created-idp");
+        idp.setProviderId("oidc");
+        idp.setEnabled(true);
+        idp.setConfig(
+                ImmutableMap.of(
+                        "home.idp.discovery.org", orgId,
+                        "authorizationUrl", "https://foo.com",
+                        "tokenUrl", "https://foo.com",
+                        "clientId", "aabbcc",
+                        "clientSecret", "112233"));
+        try (Keycloak keycloak = server.client()) {
+            keycloak.realm(REALM).identityProviders().create(idp).close();
+
+            // found through the org
+            List<IdentityProviderRepresentation> idps = idpResource.get();
+            assertThat(idps, hasSize(1));
+            assertThat(idps.get(0).getAlias(), is("realm-created-idp"));
+
+            keycloak.realm(REALM).identityProviders().get("realm-created-idp").remove();
+        }
+        assertThat(idpResource.get(), empty());
+
+        orgsResource.organization(orgId).delete();
+    }
+
     @Test
     public void testOrgAdminPermissions() {
         Keycloak keycloak = server.client();